@@ -0,0 +1,121 @@
+package com.ldk.youtube.controller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 视频文件发送：不同大小文件的完整发送和Range请求，响应体写入后直接丢弃，只衡量读取和写出路径的开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class VideoFileSenderBenchmark {
+
+    // 64KB、8MB、128MB
+    @Param({"65536", "8388608", "134217728"})
+    private long fileSize;
+
+    // 为true时请求文件中间的1MB
+    @Param({"false", "true"})
+    private boolean range;
+
+    private final VideoFileSender sender = new VideoFileSender();
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = File.createTempFile("video-file-sender", ".mp4");
+        byte[] chunk = new byte[1024 * 1024];
+        new Random(42).nextBytes(chunk);
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            for (long written = 0; written < fileSize; written += chunk.length) {
+                out.write(chunk, 0, (int) Math.min(chunk.length, fileSize - written));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public long send() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/download-file/benchmark");
+        if (range) {
+            long start = Math.max(0, fileSize / 2 - 512 * 1024);
+            long end = Math.min(fileSize, start + 1024 * 1024) - 1;
+            request.addHeader(HttpHeaders.RANGE, "bytes=" + start + "-" + end);
+        }
+        DiscardingResponse response = new DiscardingResponse();
+        sender.send(file, "video/mp4", "youtube-video-1080p.mp4", null, request, response);
+        return response.written;
+    }
+
+    /**
+     * 丢弃响应体的响应，避免把整个文件写进内存
+     */
+    private static class DiscardingResponse extends HttpServletResponseWrapper {
+
+        private long written;
+
+        private final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                written++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                written += len;
+            }
+        };
+
+        DiscardingResponse() {
+            super(new MockHttpServletResponse());
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return out;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.ldk.youtube.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 任务状态的并发读写：输出读取线程追加日志、更新进度的同时，状态接口和事件推送在读取
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class DownloadStatusBenchmark {
+
+    private static final String OUTPUT_LINE = "[progress] downloading 40632320 80923456 NA 5242880.000 7";
+    private static final String ERROR_LINE = "[debug] Invoking http downloader on \"https://rr3---sn-a5mekn6s.googlevideo.com/videoplayback\"";
+
+    private YoutubeDownloadService.DownloadStatus status;
+    private long downloaded;
+
+    @Setup
+    public void setup() {
+        status = new YoutubeDownloadService.DownloadStatus("benchmark",
+                "https://www.youtube.com/watch?v=dQw4w9WgXcQ", "1080p", new TaskLog(null, 200));
+        status.setStatus("downloading");
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public void appendOutput() {
+        status.addOutput(OUTPUT_LINE);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void appendError() {
+        status.addError(ERROR_LINE);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void updateProgress() {
+        downloaded = (downloaded + 65536) % 80923456;
+        status.updateDownloadProgress(downloaded, 80923456, 5242880, 7);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public Map<String, Object> readStatus() {
+        return status.toStatusMap();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public String readRecentErrors() {
+        return status.getError();
+    }
+}
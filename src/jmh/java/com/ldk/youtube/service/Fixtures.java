@@ -0,0 +1,44 @@
+package com.ldk.youtube.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 基准测试使用的yt-dlp输出样本，位于src/jmh/resources/fixtures
+ */
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * 按行读取样本文件
+     * @param name 样本文件名
+     */
+    public static List<String> lines(String name) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(name), StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * 读取整个样本文件
+     * @param name 样本文件名
+     */
+    public static String text(String name) throws IOException {
+        return String.join("\n", lines(name));
+    }
+
+    private static InputStream open(String name) throws IOException {
+        InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+        if (in == null) {
+            throw new IOException("找不到样本文件: " + name);
+        }
+        return in;
+    }
+}
@@ -0,0 +1,92 @@
+package com.ldk.youtube.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 下载进程输出的逐行处理：一次完整下载的标准输出（约千行进度）和--verbose错误流
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProcessOutputBenchmark {
+
+    private YoutubeDownloadService service;
+    private List<String> stdout;
+    private List<String> stderr;
+
+    @Setup
+    public void setup() throws IOException {
+        service = new YoutubeDownloadService();
+        ReflectionTestUtils.setField(service, "downloadMetrics", newDownloadMetrics());
+        // 未配置总速率，带宽调度器不登记任何任务
+        ReflectionTestUtils.setField(service, "bandwidthScheduler", new BandwidthScheduler());
+        stdout = Fixtures.lines("yt-dlp-download.stdout.log");
+        stderr = Fixtures.lines("yt-dlp-download.stderr.log");
+    }
+
+    @Benchmark
+    public YoutubeDownloadService.DownloadStatus stdout() {
+        YoutubeDownloadService.DownloadStatus status = newStatus();
+        ProgressLineParser parser = new ProgressLineParser();
+        for (String line : stdout) {
+            service.handleOutputLine(line, status, parser);
+        }
+        return status;
+    }
+
+    @Benchmark
+    public YoutubeDownloadService.DownloadStatus stderr() {
+        YoutubeDownloadService.DownloadStatus status = newStatus();
+        for (String line : stderr) {
+            service.handleErrorLine(line, status);
+        }
+        return status;
+    }
+
+    /**
+     * 只解析进度行，不更新任务状态
+     */
+    @Benchmark
+    public void progressParser(Blackhole blackhole) {
+        ProgressLineParser parser = new ProgressLineParser();
+        for (String line : stdout) {
+            blackhole.consume(parser.parse(line));
+            blackhole.consume(parser.getDownloadedBytes());
+        }
+    }
+
+    private static DownloadMetrics newDownloadMetrics() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.initialize();
+        DownloadMetrics metrics = new DownloadMetrics();
+        ReflectionTestUtils.setField(metrics, "registry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(metrics, "taskExecutor", executor);
+        metrics.init();
+        return metrics;
+    }
+
+    private static YoutubeDownloadService.DownloadStatus newStatus() {
+        return new YoutubeDownloadService.DownloadStatus("benchmark",
+                "https://www.youtube.com/watch?v=dQw4w9WgXcQ", "1080p", new TaskLog(null, 200));
+    }
+}
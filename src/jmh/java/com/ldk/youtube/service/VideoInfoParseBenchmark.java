@@ -0,0 +1,66 @@
+package com.ldk.youtube.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 视频信息解析：yt-dlp -j输出的JSON解析、按清晰度去重和排序
+ * formatsScale把样本中的formats数组复制多份，模拟格式更多的视频；readTree为构建完整JSON树的对照，
+ * 配合 -prof gc 比较每次解析的内存分配
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VideoInfoParseBenchmark {
+
+    @Param({"1", "4", "16"})
+    private int formatsScale;
+
+    private YoutubeDownloadService service;
+    private ObjectMapper mapper;
+    private String json;
+
+    @Setup
+    public void setup() throws IOException {
+        service = new YoutubeDownloadService();
+        mapper = new ObjectMapper();
+        ObjectNode root = (ObjectNode) mapper.readTree(Fixtures.text("yt-dlp-video-info.json"));
+        ArrayNode formats = (ArrayNode) root.get("formats");
+        ArrayNode scaled = mapper.createArrayNode();
+        for (int i = 0; i < formatsScale; i++) {
+            scaled.addAll(formats.deepCopy());
+        }
+        root.set("formats", scaled);
+        json = mapper.writeValueAsString(root);
+    }
+
+    @Benchmark
+    public Map<String, Object> parseVideoInfo() throws IOException {
+        return service.parseVideoInfo(json);
+    }
+
+    @Benchmark
+    public JsonNode readTree() throws IOException {
+        return mapper.readTree(json);
+    }
+}
@@ -1,12 +1,14 @@
 package com.ldk.youtube;
 
+import com.ldk.youtube.service.ProcessOutputPump;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.context.annotation.Bean;
 
-import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
 
 @SpringBootApplication
 @EnableAsync
@@ -18,19 +20,29 @@ public class YoutubeDownloadApplication {
     
     /**
      * 配置异步任务执行器
-     * 用于处理并发的视频下载任务
+     * 用于处理并发的视频下载任务，排队和调度顺序由DownloadScheduler负责，
+     * 它最多同时提交maxConcurrent个任务，线程池本身的队列只用于线程交接
+     * @param processIoMode 子进程输出读取模式，为virtual且Java版本支持时下载线程也使用虚拟线程
+     * @param maxConcurrent 同时进行的下载数
      */
     @Bean
-    public Executor taskExecutor() {
+    public ThreadPoolTaskExecutor taskExecutor(@Value("${youtube.process-io.mode:multiplexed}") String processIoMode,
+                                               @Value("${youtube.download.max-concurrent:5}") int maxConcurrent) {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        // 核心线程数
-        executor.setCorePoolSize(5);
-        // 最大线程数
-        executor.setMaxPoolSize(10);
-        // 队列容量
-        executor.setQueueCapacity(25);
+        // 核心线程数和最大线程数
+        executor.setCorePoolSize(maxConcurrent);
+        executor.setMaxPoolSize(maxConcurrent);
+        executor.setAllowCoreThreadTimeOut(true);
+        // 队列容量：结束中的下载线程还未空闲时，调度器提交的下一个任务在这里等待
+        executor.setQueueCapacity(maxConcurrent);
         // 线程名前缀
         executor.setThreadNamePrefix("youtube-downloader-");
+        if (ProcessOutputPump.MODE_VIRTUAL.equalsIgnoreCase(processIoMode)) {
+            ThreadFactory factory = ProcessOutputPump.virtualThreadFactory("youtube-downloader-");
+            if (factory != null) {
+                executor.setThreadFactory(factory);
+            }
+        }
         executor.initialize();
         return executor;
     }
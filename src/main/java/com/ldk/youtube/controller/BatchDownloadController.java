@@ -0,0 +1,63 @@
+package com.ldk.youtube.controller;
+
+import com.ldk.youtube.service.BatchDownloadService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+public class BatchDownloadController {
+
+    @Autowired
+    private BatchDownloadService batchDownloadService;
+
+    @Autowired
+    private ClientIdResolver clientIdResolver;
+
+    /**
+     * 提交批量下载
+     * 可同时传入视频URL列表和播放列表URL，批次内按并行度依次下载
+     * @param request 批量下载请求
+     * @return 包含批次ID的响应
+     */
+    @PostMapping("/api/download-batch")
+    public ResponseEntity<?> submitBatch(@RequestBody BatchDownloadRequest request, HttpServletRequest httpRequest) {
+        String quality = request.getQuality();
+        if (quality == null || quality.trim().isEmpty()) {
+            quality = "best";
+        }
+        try {
+            String batchId = batchDownloadService.submitBatch(request.getUrls(), request.getPlaylistUrl(),
+                    quality, request.getParallelism(), clientIdResolver.resolve(httpRequest));
+            return new ResponseEntity<>(batchDownloadService.getBatch(batchId).toStatusMap(), HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            Map<String, String> response = new HashMap<>();
+            response.put("error", e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * 获取批次状态：整体进度、各状态条目数和每个视频的下载结果
+     * @param batchId 批次ID
+     */
+    @GetMapping("/api/download-batch/{batchId}")
+    public ResponseEntity<?> getBatch(@PathVariable("batchId") String batchId) {
+        BatchDownloadService.DownloadBatch batch = batchDownloadService.getBatch(batchId);
+        if (batch == null) {
+            Map<String, String> response = new HashMap<>();
+            response.put("error", "批次不存在");
+            return new ResponseEntity<>(response, HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(batch.toStatusMap(), HttpStatus.OK);
+    }
+}
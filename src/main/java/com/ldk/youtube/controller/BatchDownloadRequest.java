@@ -0,0 +1,53 @@
+package com.ldk.youtube.controller;
+
+import java.util.List;
+
+/**
+ * 批量下载请求
+ */
+public class BatchDownloadRequest {
+
+    // 视频URL列表
+    private List<String> urls;
+
+    // 播放列表URL，展开后加入批次
+    private String playlistUrl;
+
+    // 视频质量，默认best
+    private String quality;
+
+    // 批次内同时进行的下载数
+    private Integer parallelism;
+
+    public List<String> getUrls() {
+        return urls;
+    }
+
+    public void setUrls(List<String> urls) {
+        this.urls = urls;
+    }
+
+    public String getPlaylistUrl() {
+        return playlistUrl;
+    }
+
+    public void setPlaylistUrl(String playlistUrl) {
+        this.playlistUrl = playlistUrl;
+    }
+
+    public String getQuality() {
+        return quality;
+    }
+
+    public void setQuality(String quality) {
+        this.quality = quality;
+    }
+
+    public Integer getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(Integer parallelism) {
+        this.parallelism = parallelism;
+    }
+}
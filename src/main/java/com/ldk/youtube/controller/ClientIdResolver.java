@@ -0,0 +1,30 @@
+package com.ldk.youtube.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * 识别提交下载的客户端，用于下载调度在客户端之间轮流和限制每个客户端的同时下载数
+ * 默认按请求来源地址区分；部署在反向代理之后时可配置由代理设置的请求头（如X-Forwarded-For、X-Client-Id）
+ */
+@Component
+public class ClientIdResolver {
+
+    // 标识客户端的请求头，为空时使用请求来源地址
+    @Value("${youtube.scheduler.client-header:}")
+    private String clientHeader;
+
+    public String resolve(HttpServletRequest request) {
+        if (!clientHeader.isEmpty()) {
+            String value = request.getHeader(clientHeader);
+            if (value != null && !value.trim().isEmpty()) {
+                // X-Forwarded-For可能包含多个地址，第一个是原始客户端
+                int comma = value.indexOf(',');
+                return (comma >= 0 ? value.substring(0, comma) : value).trim();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+}
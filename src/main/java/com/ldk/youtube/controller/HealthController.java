@@ -0,0 +1,50 @@
+package com.ldk.youtube.controller;
+
+import com.ldk.youtube.service.ClusterNode;
+import com.ldk.youtube.service.StorageManager;
+import com.ldk.youtube.service.ToolchainRegistry;
+import com.ldk.youtube.service.YtDlpWorkerPool;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+public class HealthController {
+
+    @Autowired
+    private ToolchainRegistry toolchainRegistry;
+
+    @Autowired
+    private StorageManager storageManager;
+
+    @Autowired
+    private YtDlpWorkerPool ytDlpWorkerPool;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    /**
+     * 健康检查
+     * yt-dlp不可用时返回503，其他工具不可用时状态为DEGRADED
+     * @return 节点标识、各外部工具的探测结果、下载目录空间使用情况和yt-dlp常驻工作进程状态
+     */
+    @GetMapping("/api/health")
+    public ResponseEntity<?> health() {
+        Map<String, ToolchainRegistry.ToolStatus> tools = toolchainRegistry.getTools();
+        boolean ytDlpAvailable = toolchainRegistry.isAvailable(ToolchainRegistry.YT_DLP);
+        boolean allAvailable = tools.values().stream().allMatch(ToolchainRegistry.ToolStatus::isAvailable);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("node", clusterNode.getNodeId());
+        response.put("status", !ytDlpAvailable ? "DOWN" : allAvailable ? "UP" : "DEGRADED");
+        response.put("tools", tools);
+        response.put("storage", storageManager.getStats());
+        response.put("workers", ytDlpWorkerPool.getStats());
+        return new ResponseEntity<>(response, ytDlpAvailable ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE);
+    }
+}
@@ -0,0 +1,173 @@
+package com.ldk.youtube.controller;
+
+import com.ldk.youtube.service.ClusterNode;
+import com.ldk.youtube.service.TaskStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把其他节点的任务请求转给任务所属节点
+ * 路径中带taskId或batchId的接口，ID不属于本节点时按配置重定向（307）或代理到所属节点；
+ * 找不到所属节点的地址或连接失败时交给本节点处理（任务状态接口返回共享存储中的快照，其他接口返回404）。
+ */
+@Component
+public class TaskOwnerInterceptor implements HandlerInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskOwnerInterceptor.class);
+
+    public static final String MODE_PROXY = "proxy";
+    public static final String MODE_REDIRECT = "redirect";
+
+    // 代理请求带上的请求头，值为转发方节点；收到带此请求头的请求时不再转发，避免节点之间循环转发
+    public static final String FORWARDED_BY_HEADER = "X-Youtube-Forwarded-By";
+
+    private static final List<String> ID_VARIABLES = Arrays.asList("taskId", "batchId");
+
+    // 代理时转发给所属节点的请求头，断点续传和条件请求需要
+    private static final List<String> FORWARDED_REQUEST_HEADERS = Arrays.asList(
+            HttpHeaders.ACCEPT, HttpHeaders.RANGE, HttpHeaders.IF_RANGE, HttpHeaders.IF_NONE_MATCH,
+            HttpHeaders.IF_MODIFIED_SINCE, HttpHeaders.USER_AGENT);
+
+    // 不从所属节点的响应中复制的响应头，由本节点的容器处理
+    private static final List<String> HOP_BY_HOP_HEADERS = Arrays.asList(
+            "connection", "keep-alive", "transfer-encoding", "te", "trailer", "upgrade");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    @Autowired
+    private TaskStore taskStore;
+
+    // 转发方式：proxy（本节点代理，客户端只需访问负载均衡地址）或redirect（客户端直接访问所属节点）
+    @Value("${youtube.cluster.forward-mode:proxy}")
+    private String forwardMode;
+
+    @Value("${youtube.cluster.proxy-connect-timeout-ms:2000}")
+    private int connectTimeoutMs;
+
+    // 代理时两次读到数据之间的最长等待（秒），事件流在任务排队期间可能长时间没有数据
+    @Value("${youtube.cluster.proxy-read-timeout-seconds:1800}")
+    private long readTimeoutSeconds;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        String id = idOf(request);
+        if (id == null || clusterNode.isLocal(id) || request.getHeader(FORWARDED_BY_HEADER) != null) {
+            return true;
+        }
+        String owner = ClusterNode.ownerOf(id);
+        String ownerUrl = clusterNode.getPeerUrl(owner);
+        if (ownerUrl == null) {
+            ownerUrl = taskStore.findNodeUrl(owner);
+        }
+        if (ownerUrl == null) {
+            logger.debug("[{}] 所属节点 {} 地址未知，由本节点处理", id, owner);
+            return true;
+        }
+
+        String target = ownerUrl + request.getRequestURI()
+                + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+        if (MODE_REDIRECT.equalsIgnoreCase(forwardMode)) {
+            response.setStatus(HttpServletResponse.SC_TEMPORARY_REDIRECT);
+            response.setHeader(HttpHeaders.LOCATION, target);
+            return false;
+        }
+        return !proxy(request, response, target);
+    }
+
+    /**
+     * 路径变量中的任务ID或批次ID
+     */
+    @SuppressWarnings("unchecked")
+    private static String idOf(HttpServletRequest request) {
+        Object variables = request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (!(variables instanceof Map)) {
+            return null;
+        }
+        for (String name : ID_VARIABLES) {
+            String id = ((Map<String, String>) variables).get(name);
+            if (id != null) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 把请求代理到所属节点，边读边写，文件下载和事件流都不在本节点缓存
+     * @return 已把所属节点的响应发给客户端返回true；连接所属节点失败（尚未写入响应）返回false
+     */
+    private boolean proxy(HttpServletRequest request, HttpServletResponse response, String target)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(target).openConnection();
+        try {
+            connection.setRequestMethod(request.getMethod());
+            connection.setInstanceFollowRedirects(false);
+            connection.setConnectTimeout(connectTimeoutMs);
+            connection.setReadTimeout((int) TimeUnit.SECONDS.toMillis(readTimeoutSeconds));
+            for (String header : FORWARDED_REQUEST_HEADERS) {
+                String value = request.getHeader(header);
+                if (value != null) {
+                    connection.setRequestProperty(header, value);
+                }
+            }
+            connection.setRequestProperty(FORWARDED_BY_HEADER, clusterNode.getNodeId());
+
+            int status;
+            try {
+                status = connection.getResponseCode();
+            } catch (IOException e) {
+                logger.warn("代理到所属节点失败: {} ({})", target, e.getMessage());
+                return false;
+            }
+
+            response.setStatus(status);
+            for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+                if (header.getKey() == null || HOP_BY_HOP_HEADERS.contains(header.getKey().toLowerCase())) {
+                    continue;
+                }
+                for (String value : header.getValue()) {
+                    response.addHeader(header.getKey(), value);
+                }
+            }
+            InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (in == null) {
+                return true;
+            }
+            try (InputStream body = in) {
+                OutputStream out = response.getOutputStream();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    // 事件流需要及时送达，每次读到数据都发出
+                    out.flush();
+                }
+            }
+            return true;
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.ldk.youtube.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * 视频文件发送器
+ * 直接从磁盘流式发送文件，支持Range/If-Range断点续传，不在堆内存中缓存整个文件；
+ * 发送ETag、Last-Modified和Cache-Control，If-None-Match/If-Modified-Since命中时返回304，浏览器和CDN可以缓存文件
+ */
+@Component
+public class VideoFileSender {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoFileSender.class);
+
+    // Tomcat sendfile 相关的请求属性
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // 下载文件的Cache-Control，产物内容不会变化，默认允许CDN缓存
+    @Value("${youtube.http.file-cache-control:public, max-age=86400}")
+    private String cacheControl;
+
+    /**
+     * 发送文件
+     * @param file 要发送的文件
+     * @param contentType 内容类型
+     * @param downloadName 下载时的文件名
+     * @param sha256 文件的sha256，用作ETag，未知时为null，按大小和修改时间生成
+     * @return 写出（或交给sendfile）的字节数，返回304时为0
+     */
+    public long send(File file, String contentType, String downloadName, String sha256,
+                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length = file.length();
+        // HTTP日期只精确到秒
+        long lastModified = file.lastModified() / 1000 * 1000;
+        String etag = etagOf(length, lastModified, sha256);
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.ETAG, etag);
+        if (cacheControl != null && !cacheControl.trim().isEmpty()) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.trim());
+        }
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return 0;
+        }
+        response.setContentType(contentType);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment")
+                .filename(downloadName, StandardCharsets.UTF_8)
+                .build()
+                .toString());
+
+        long start = 0;
+        long end = length - 1;
+        boolean partial = false;
+
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && length > 0 && isIfRangeSatisfied(request, etag, lastModified)) {
+            HttpRange range = parseSingleRange(rangeHeader);
+            if (range != null) {
+                start = range.getRangeStart(length);
+                if (start >= length) {
+                    // 请求范围不可满足
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return 0;
+                }
+                end = range.getRangeEnd(length);
+                partial = true;
+            }
+        }
+
+        long count = end - start + 1;
+        if (partial) {
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        } else {
+            response.setStatus(HttpServletResponse.SC_OK);
+        }
+        response.setContentLengthLong(count);
+
+        if ("HEAD".equalsIgnoreCase(request.getMethod()) || count <= 0) {
+            return 0;
+        }
+
+        // 容器支持sendfile时交给Tomcat零拷贝发送
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, end + 1);
+            logger.debug("使用sendfile发送文件: {} [{}-{}]", file, start, end);
+            return count;
+        }
+
+        // 否则使用FileChannel.transferTo分段写出，堆内存占用与文件大小无关
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long transferred = channel.transferTo(position, remaining, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+            return count - remaining;
+        }
+    }
+
+    /**
+     * 文件的ETag：有sha256时取其前32位，否则由大小和修改时间生成
+     */
+    static String etagOf(long length, long lastModified, String sha256) {
+        if (sha256 != null && sha256.length() >= 32) {
+            return "\"" + sha256.substring(0, 32) + "\"";
+        }
+        return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    /**
+     * 检查条件请求：有If-None-Match时按ETag比较（弱比较），否则按If-Modified-Since比较
+     */
+    private boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String method = request.getMethod();
+        if (!"GET".equalsIgnoreCase(method) && !"HEAD".equalsIgnoreCase(method)) {
+            return false;
+        }
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if ("*".equals(tag) || etag.equals(tag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        try {
+            long ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+            return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 检查If-Range条件，不满足时应返回完整文件
+     */
+    private boolean isIfRangeSatisfied(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        // ETag形式的If-Range使用强比较，弱ETag不满足
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) == lastModified;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 解析单个Range，语法错误或多段Range时返回null（按完整文件处理）
+     */
+    private HttpRange parseSingleRange(String rangeHeader) {
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            logger.debug("忽略无效的Range请求头: {}", rangeHeader);
+            return null;
+        }
+    }
+}
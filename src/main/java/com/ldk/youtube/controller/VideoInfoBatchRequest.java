@@ -0,0 +1,20 @@
+package com.ldk.youtube.controller;
+
+import java.util.List;
+
+/**
+ * 批量获取视频信息请求
+ */
+public class VideoInfoBatchRequest {
+
+    // 视频URL列表
+    private List<String> urls;
+
+    public List<String> getUrls() {
+        return urls;
+    }
+
+    public void setUrls(List<String> urls) {
+        this.urls = urls;
+    }
+}
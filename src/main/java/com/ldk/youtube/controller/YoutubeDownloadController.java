@@ -1,33 +1,93 @@
 package com.ldk.youtube.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.ldk.youtube.service.DownloadEventPublisher;
+import com.ldk.youtube.service.DownloadMetrics;
+import com.ldk.youtube.service.DownloadRejectedException;
+import com.ldk.youtube.service.DownloadScheduler;
+import com.ldk.youtube.service.ProgressiveDownloadService;
+import com.ldk.youtube.service.VideoInfoBatchService;
 import com.ldk.youtube.service.YoutubeDownloadService;
+import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
 
 @Controller
 public class YoutubeDownloadController {
 
     private static final Logger logger = LoggerFactory.getLogger(YoutubeDownloadController.class);
+    
+    // 日志接口单次最多返回的行数
+    private static final int MAX_LOG_TAIL_LINES = 5000;
+    
+    // 计算视频信息ETag用的序列化，按键排序保证相同内容的结果一致
+    private static final ObjectMapper ETAG_MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+    
+    // 批量获取视频信息的响应类型，每行一个JSON
+    private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+    
+    private static final ObjectMapper NDJSON_MAPPER = new ObjectMapper();
+    
+    // 视频信息的Cache-Control
+    @Value("${youtube.http.video-info-cache-control:public, max-age=300}")
+    private String videoInfoCacheControl;
 
     @Autowired
     private YoutubeDownloadService youtubeDownloadService;
     
+    @Autowired
+    private VideoFileSender videoFileSender;
+    
+    @Autowired
+    private DownloadEventPublisher downloadEventPublisher;
+    
+    @Autowired
+    private DownloadMetrics downloadMetrics;
+    
+    @Autowired
+    private ClientIdResolver clientIdResolver;
+    
+    @Autowired
+    private ProgressiveDownloadService progressiveDownloadService;
+    
+    @Autowired
+    private VideoInfoBatchService videoInfoBatchService;
+    
     @GetMapping("/youtube-downloader")
     public String youtubeDownloader() {
         return "youtube-downloader";
@@ -42,7 +102,8 @@ public class YoutubeDownloadController {
     @GetMapping("/api/download-video")
     @ResponseBody
     public ResponseEntity<?> downloadVideo(@RequestParam("url") String videoUrl, 
-                                         @RequestParam("quality") String quality) {
+                                         @RequestParam("quality") String quality,
+                                         HttpServletRequest request) {
         try {
             // 验证URL不为空
             if (videoUrl == null || videoUrl.trim().isEmpty()) {
@@ -59,29 +120,26 @@ public class YoutubeDownloadController {
             // 解码URL
             String decodedUrl = URLDecoder.decode(videoUrl, StandardCharsets.UTF_8.name());
             
-            // 启动异步下载任务
-            String taskId = youtubeDownloadService.downloadVideo(decodedUrl, quality).get();
-            
-            // 检查是否返回了错误
-            if (taskId.startsWith("[ERROR]")) {
-                Map<String, String> response = new HashMap<>();
-                response.put("error", taskId.substring(8)); // 移除[ERROR]前缀
-                logger.error("下载视频失败: {}", taskId);
-                return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
-            }
+            // 提交下载任务，立即返回任务ID
+            String taskId = youtubeDownloadService.submitDownload(decodedUrl, quality,
+                    clientIdResolver.resolve(request), DownloadScheduler.PRIORITY_INTERACTIVE);
             
-            // 返回任务ID
-            Map<String, String> response = new HashMap<>();
+            // 返回任务ID，已有相同下载结果时任务直接为completed；queueSize是当前排队的任务总数，不是本任务的位置
+            YoutubeDownloadService.DownloadStatus status = youtubeDownloadService.getDownloadStatus(taskId);
+            Map<String, Object> response = new HashMap<>();
             response.put("taskId", taskId);
-            response.put("status", "downloading");
-            logger.info("成功启动下载任务: {}", taskId);
+            response.put("status", status != null ? status.getStatus() : "pending");
+            response.put("queueSize", youtubeDownloadService.getQueueSize());
             return new ResponseEntity<>(response, HttpStatus.OK);
             
-        } catch (InterruptedException | ExecutionException e) {
-            logger.error("下载视频时发生异常: {}", e.getMessage(), e);
-            Map<String, String> response = new HashMap<>();
-            response.put("error", "下载失败: 处理下载任务时出错");
-            return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (DownloadRejectedException e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("error", e.getMessage());
+            response.put("queueSize", e.getQueueSize());
+            response.put("retryAfterSeconds", e.getRetryAfterSeconds());
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+            return new ResponseEntity<>(response, headers, HttpStatus.TOO_MANY_REQUESTS);
         } catch (Exception e) {
             logger.error("下载视频时发生未预期异常: {}", e.getMessage(), e);
             Map<String, String> response = new HashMap<>();
@@ -92,6 +150,7 @@ public class YoutubeDownloadController {
     
     /**
      * 获取下载任务状态
+     * 其他节点的任务由TaskOwnerInterceptor转给所属节点；所属节点失联时返回共享存储中的最后状态
      * @param taskId 任务ID
      * @return 任务状态
      */
@@ -101,55 +160,210 @@ public class YoutubeDownloadController {
         YoutubeDownloadService.DownloadStatus status = youtubeDownloadService.getDownloadStatus(taskId);
         
         if (status == null) {
+            Map<String, Object> snapshot = youtubeDownloadService.findTaskSnapshot(taskId);
+            if (snapshot != null) {
+                snapshot.put("stale", true);
+                return new ResponseEntity<>(snapshot, HttpStatus.OK);
+            }
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
         
-        Map<String, Object> response = new HashMap<>();
-        response.put("taskId", status.getTaskId());
-        response.put("status", status.getStatus());
-        response.put("progress", status.getProgress());
-        response.put("elapsedTimeMs", status.getElapsedTimeMs());
+        Map<String, Object> response = status.toStatusMap();
+        
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+    
+    /**
+     * 取消下载任务：排队中的任务移出队列，下载中的任务结束下载进程
+     * @param taskId 任务ID
+     * @return 取消后的任务状态，任务已结束时返回409
+     */
+    @DeleteMapping("/api/download/{taskId}")
+    @ResponseBody
+    public ResponseEntity<?> cancelDownload(@PathVariable("taskId") String taskId) {
+        YoutubeDownloadService.DownloadStatus status = youtubeDownloadService.getDownloadStatus(taskId);
+        if (status == null) {
+            Map<String, String> response = new HashMap<>();
+            response.put("error", "任务不存在");
+            return new ResponseEntity<>(response, HttpStatus.NOT_FOUND);
+        }
+        if (!youtubeDownloadService.cancelDownload(taskId)) {
+            Map<String, Object> response = status.toStatusMap();
+            response.put("error", "任务已结束，无法取消");
+            return new ResponseEntity<>(response, HttpStatus.CONFLICT);
+        }
+        return new ResponseEntity<>(status.toStatusMap(), HttpStatus.OK);
+    }
+    
+    /**
+     * 获取下载任务的最后几行日志
+     * @param taskId 任务ID
+     * @param tail 行数，默认100，最多5000
+     * @return 日志行
+     */
+    @GetMapping("/api/download-log/{taskId}")
+    @ResponseBody
+    public ResponseEntity<?> getDownloadLog(@PathVariable("taskId") String taskId,
+                                            @RequestParam(value = "tail", defaultValue = "100") int tail) {
+        List<String> lines = youtubeDownloadService.getTaskLogTail(taskId, Math.max(1, Math.min(tail, MAX_LOG_TAIL_LINES)));
+        if (lines == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
         
+        Map<String, Object> response = new HashMap<>();
+        response.put("taskId", taskId);
+        response.put("lines", lines);
         return new ResponseEntity<>(response, HttpStatus.OK);
     }
     
+    /**
+     * 订阅单个下载任务的状态事件（SSE）
+     * @param taskId 任务ID
+     * @return 事件流，任务结束后关闭
+     */
+    @GetMapping(value = "/api/download-events/{taskId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public ResponseEntity<SseEmitter> subscribeDownloadEvents(@PathVariable("taskId") String taskId) {
+        if (youtubeDownloadService.getDownloadStatus(taskId) == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(downloadEventPublisher.subscribe(Collections.singletonList(taskId)), HttpStatus.OK);
+    }
+    
+    /**
+     * 在一个连接上订阅多个下载任务的状态事件（SSE）
+     * 此接口不转发到其他节点：其他节点的任务推送status为remote的事件，客户端需改用单任务接口订阅
+     * @param taskIds 逗号分隔的任务ID列表
+     * @return 事件流，所有任务结束后关闭
+     */
+    @GetMapping(value = "/api/download-events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public ResponseEntity<SseEmitter> subscribeDownloadEvents(@RequestParam("taskIds") List<String> taskIds) {
+        if (taskIds.isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(downloadEventPublisher.subscribe(new LinkedHashSet<>(taskIds)), HttpStatus.OK);
+    }
+    
     /**
      * 获取已下载的视频文件
+     * 从磁盘流式发送，支持Range/If-Range断点续传和拖动
      * @param taskId 任务ID
-     * @return 视频文件
      */
     @GetMapping("/api/download-file/{taskId}")
-    @ResponseBody
-    public ResponseEntity<byte[]> getDownloadedVideo(@PathVariable("taskId") String taskId) {
+    public void getDownloadedVideo(@PathVariable("taskId") String taskId,
+                                   HttpServletRequest request,
+                                   HttpServletResponse response) throws IOException {
         YoutubeDownloadService.DownloadStatus status = youtubeDownloadService.getDownloadStatus(taskId);
         
         if (status == null) {
-            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
         
         if (!"completed".equals(status.getStatus())) {
-            return new ResponseEntity<>(HttpStatus.ACCEPTED);
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+            return;
         }
         
-        byte[] videoData = youtubeDownloadService.getDownloadedVideo(taskId);
-        if (videoData == null) {
-            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        File videoFile = youtubeDownloadService.getDownloadedVideoFile(taskId);
+        if (videoFile == null) {
+            // 文件已被空间回收删除或丢失
+            response.setStatus(HttpServletResponse.SC_GONE);
+            return;
         }
         
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.parseMediaType("video/mp4"));
-        headers.setContentDispositionFormData("attachment", "youtube-video-" + status.getQuality() + ".mp4");
-        headers.setContentLength(videoData.length);
+        // 客户端可能分段请求或续传，任务保留到被回收为止
+        // 使用sendfile时只统计到交给容器为止
+        long startNanos = System.nanoTime();
+        String extension = FilenameUtils.getExtension(videoFile.getName());
+        long sent = videoFileSender.send(videoFile, contentTypeOf(extension),
+                "youtube-video-" + status.getQuality() + "." + extension,
+                youtubeDownloadService.getArtifactSha256(videoFile), request, response);
+        downloadMetrics.recordPhase(DownloadMetrics.PHASE_DELIVERY, System.nanoTime() - startNanos);
+        downloadMetrics.addBytesServed(sent);
+        if (sent > 0) {
+            youtubeDownloadService.markDelivered(videoFile);
+        }
+    }
+    
+    /**
+     * 按扩展名确定下载文件的内容类型，只要音频时为音频类型
+     */
+    private static String contentTypeOf(String extension) {
+        switch (extension) {
+            case "m4a":
+                return "audio/mp4";
+            case "mp3":
+                return "audio/mpeg";
+            case "opus":
+                return "audio/ogg";
+            case "webm":
+                return "video/webm";
+            default:
+                return "video/mp4";
+        }
+    }
+    
+    /**
+     * 边下边传：不等下载完成，yt-dlp输出的数据直接以分块响应发送
+     * 只使用不需要合并的单文件格式；之前已完整保存过时直接发送文件（支持断点续传）
+     * @param videoUrl 视频URL
+     * @param quality 视频质量，默认best
+     */
+    @GetMapping("/api/download-stream")
+    public ResponseEntity<?> streamVideo(@RequestParam("url") String videoUrl,
+                                         @RequestParam(value = "quality", defaultValue = "best") String quality,
+                                         HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (videoUrl == null || videoUrl.trim().isEmpty()) {
+            Map<String, String> body = new HashMap<>();
+            body.put("error", "视频URL不能为空");
+            return new ResponseEntity<>(body, HttpStatus.BAD_REQUEST);
+        }
+        String decodedUrl = URLDecoder.decode(videoUrl, StandardCharsets.UTF_8.name());
         
-        // 下载完成后清理任务资源
-        youtubeDownloadService.cleanupTask(taskId);
+        File saved = progressiveDownloadService.findArtifact(decodedUrl, quality);
+        if (saved != null) {
+            String extension = saved.getName().endsWith(".webm") ? "webm" : "mp4";
+            long sent = videoFileSender.send(saved, "video/" + extension, "youtube-video-" + quality + "." + extension,
+                    youtubeDownloadService.getArtifactSha256(saved), request, response);
+            downloadMetrics.addBytesServed(sent);
+            return null;
+        }
         
-        return new ResponseEntity<>(videoData, headers, HttpStatus.OK);
+        try {
+            progressiveDownloadService.stream(decodedUrl, quality, (contentType, extension) -> {
+                response.setContentType(contentType);
+                response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment")
+                        .filename("youtube-video-" + quality + "." + extension, StandardCharsets.UTF_8)
+                        .build()
+                        .toString());
+                return response.getOutputStream();
+            });
+            return null;
+        } catch (DownloadRejectedException e) {
+            Map<String, Object> body = new HashMap<>();
+            body.put("error", "同时进行的边下边传过多，请稍后重试或使用普通下载");
+            body.put("retryAfterSeconds", e.getRetryAfterSeconds());
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+            return new ResponseEntity<>(body, headers, HttpStatus.TOO_MANY_REQUESTS);
+        } catch (IllegalStateException e) {
+            logger.warn("边下边传失败: {}", e.getMessage());
+            Map<String, String> body = new HashMap<>();
+            body.put("error", "下载失败: " + e.getMessage());
+            return new ResponseEntity<>(body, HttpStatus.BAD_GATEWAY);
+        }
     }
     
+    /**
+     * 获取视频信息，带ETag；If-None-Match与缓存中的信息一致时直接返回304，不调用yt-dlp
+     * @param videoUrl 视频URL
+     * @return 视频信息
+     */
     @GetMapping("/api/video-info")
     @ResponseBody
-    public ResponseEntity<?> getVideoInfo(@RequestParam("url") String videoUrl) {
+    public ResponseEntity<?> getVideoInfo(@RequestParam("url") String videoUrl, WebRequest webRequest) {
         try {
             if (videoUrl == null || videoUrl.trim().isEmpty()) {
                 Map<String, String> response = new HashMap<>();
@@ -158,9 +372,21 @@ public class YoutubeDownloadController {
             }
 
             String decodedUrl = URLDecoder.decode(videoUrl, StandardCharsets.UTF_8.name());
+            
+            // 浏览器或CDN带着ETag再次请求时，先用缓存中的信息判断是否变化
+            Map<String, Object> cached = youtubeDownloadService.peekVideoInfo(decodedUrl);
+            if (cached != null && webRequest.checkNotModified(videoInfoEtag(cached))) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .header(HttpHeaders.CACHE_CONTROL, videoInfoCacheControl)
+                        .build();
+            }
+            
             Map<String, Object> videoInfo = youtubeDownloadService.getVideoInfo(decodedUrl);
             
-            return new ResponseEntity<>(videoInfo, HttpStatus.OK);
+            return ResponseEntity.ok()
+                    .eTag(videoInfoEtag(videoInfo))
+                    .header(HttpHeaders.CACHE_CONTROL, videoInfoCacheControl)
+                    .body(videoInfo);
         } catch (Exception e) {
             logger.error("获取视频信息时发生异常: {}", e.getMessage(), e);
             Map<String, String> response = new HashMap<>();
@@ -169,23 +395,64 @@ public class YoutubeDownloadController {
         }
     }
     
-
-    
-    private String extractVideoId(String url) {
-        String videoId = "dQw4w9WgXcQ"; // 默认视频ID
-        
-        if (url.contains("v=")) {
-            videoId = url.split("v=")[1];
-            if (videoId.contains("&")) {
-                videoId = videoId.split("&")[0];
-            }
-        } else if (url.contains("youtu.be/")) {
-            videoId = url.split("youtu.be/")[1];
-            if (videoId.contains("?")) {
-                videoId = videoId.split("\\?")[0];
-            }
+    /**
+     * 批量获取视频信息，以NDJSON逐行返回，每个链接一行，按完成顺序输出
+     * 每行包含index（在请求列表中的位置）、url，以及info或error；单个视频失败不影响其他视频
+     * @param request 包含视频URL列表的请求
+     */
+    @PostMapping("/api/video-info/batch")
+    public ResponseEntity<?> getVideoInfoBatch(@RequestBody VideoInfoBatchRequest request,
+                                               HttpServletResponse response) {
+        List<String> urls = request.getUrls();
+        if (urls == null || urls.isEmpty()) {
+            Map<String, String> body = new HashMap<>();
+            body.put("error", "视频URL列表不能为空");
+            return new ResponseEntity<>(body, HttpStatus.BAD_REQUEST);
+        }
+        if (urls.size() > videoInfoBatchService.getMaxUrls()) {
+            Map<String, String> body = new HashMap<>();
+            body.put("error", "一次最多获取 " + videoInfoBatchService.getMaxUrls() + " 个视频的信息");
+            return new ResponseEntity<>(body, HttpStatus.BAD_REQUEST);
         }
         
-        return videoId;
+        response.setContentType(NDJSON_CONTENT_TYPE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        try {
+            OutputStream out = response.getOutputStream();
+            videoInfoBatchService.resolve(urls, (index, url, info, error) -> {
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("index", index);
+                line.put("url", url);
+                if (info != null) {
+                    line.put("info", info);
+                } else {
+                    line.put("error", error);
+                }
+                out.write(NDJSON_MAPPER.writeValueAsBytes(line));
+                out.write('\n');
+                // 每行立即发出，客户端不必等整批结束
+                out.flush();
+            });
+        } catch (IOException e) {
+            logger.debug("批量获取视频信息时客户端断开: {}", e.getMessage());
+        }
+        return null;
+    }
+    
+    /**
+     * 视频信息的ETag：按键排序序列化后的摘要，内容相同的信息ETag相同
+     */
+    private String videoInfoEtag(Map<String, Object> videoInfo) throws JsonProcessingException {
+        byte[] json = ETAG_MAPPER.writeValueAsBytes(videoInfo);
+        return "W/\"" + DigestUtils.md5DigestAsHex(json) + "\"";
+    }
+    
+    /**
+     * 获取视频信息缓存的统计数据
+     */
+    @GetMapping("/api/video-info/cache-stats")
+    @ResponseBody
+    public ResponseEntity<?> getVideoInfoCacheStats() {
+        return new ResponseEntity<>(youtubeDownloadService.getVideoInfoCacheStats(), HttpStatus.OK);
     }
 }
\ No newline at end of file
@@ -0,0 +1,427 @@
+package com.ldk.youtube.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 下载产物存储
+ * 按（视频ID, 格式选择器）索引已下载完成的文件，索引持久化到下载目录下的索引文件中，
+ * 相同视频和清晰度的重复请求可以直接使用已有文件。
+ * 登记和回收立即写入索引；访问和发送时间只标记索引待保存，由定时任务和关闭时统一写入
+ */
+@Component
+public class ArtifactStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArtifactStore.class);
+
+    private static final String INDEX_FILE_NAME = ".artifact-index.json";
+
+    // 各下载任务临时目录的父目录
+    private static final String STAGING_DIR_NAME = ".staging";
+
+    private static final TypeReference<List<Artifact>> INDEX_TYPE = new TypeReference<List<Artifact>>() {};
+
+    // 下载目录
+    @Value("${youtube.download.dir:${user.home}/Downloads/youtube-downloads}")
+    private String downloadDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 访问和发送时间变化后保存索引的间隔（秒）
+    @Value("${youtube.storage.index-flush-seconds:30}")
+    private long indexFlushSeconds;
+
+    private final ConcurrentHashMap<String, Artifact> artifacts = new ConcurrentHashMap<>();
+
+    // 文件路径 -> 产物，发送文件时按路径查找
+    private final ConcurrentHashMap<String, Artifact> artifactsByPath = new ConcurrentHashMap<>();
+
+    // 索引有尚未保存的访问和发送时间
+    private final AtomicBoolean indexDirty = new AtomicBoolean();
+
+    private ScheduledExecutorService indexFlusher;
+
+    private Path root;
+
+    private Path indexFile;
+
+    // 启动时间，清理遗留临时目录时不处理此后创建的目录
+    private long startedAt;
+
+    @PostConstruct
+    public void init() throws IOException {
+        startedAt = System.currentTimeMillis();
+        root = Paths.get(downloadDir).toAbsolutePath();
+        Files.createDirectories(root);
+        indexFile = root.resolve(INDEX_FILE_NAME);
+        loadIndex();
+        indexFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "artifact-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, indexFlushSeconds);
+        indexFlusher.scheduleWithFixedDelay(this::flushIndex, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        indexFlusher.shutdownNow();
+        flushIndex();
+    }
+
+    /**
+     * 获取下载目录
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * 为下载任务创建独立的临时目录，yt-dlp的中间文件和输出都写在这里
+     * @param taskId 任务ID
+     * @return 临时目录
+     */
+    public Path createStagingDir(String taskId) throws IOException {
+        return Files.createDirectories(root.resolve(STAGING_DIR_NAME).resolve(taskId));
+    }
+
+    /**
+     * 删除下载任务的临时目录
+     */
+    public void deleteStagingDir(Path stagingDir) {
+        if (!FileUtils.deleteQuietly(stagingDir.toFile())) {
+            logger.warn("删除临时目录失败: {}", stagingDir);
+        }
+    }
+
+    /**
+     * 清理上次运行遗留的临时目录：被拒绝或已结束的任务、崩溃前未删除的目录和边下边播留下的stream-*目录
+     * 本次启动后创建的目录不处理
+     * @param keepTaskIds 需要保留临时目录的任务（恢复后继续下载的任务）
+     * @return 删除的目录数
+     */
+    public int purgeStagingDirs(Set<String> keepTaskIds) {
+        Path stagingRoot = root.resolve(STAGING_DIR_NAME);
+        if (!Files.isDirectory(stagingRoot)) {
+            return 0;
+        }
+        int purged = 0;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(stagingRoot)) {
+            for (Path dir : dirs) {
+                if (keepTaskIds.contains(dir.getFileName().toString())
+                        || Files.getLastModifiedTime(dir).toMillis() >= startedAt) {
+                    continue;
+                }
+                if (FileUtils.deleteQuietly(dir.toFile())) {
+                    purged++;
+                } else {
+                    logger.warn("删除遗留临时目录失败: {}", dir);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("清理遗留临时目录失败: {}", e.getMessage());
+        }
+        return purged;
+    }
+
+    /**
+     * 将临时目录中下载完成的文件原子移动到下载目录
+     * @param stagedFile 临时目录中的文件
+     * @return 移动后的文件
+     */
+    public File promote(File stagedFile) throws IOException {
+        Path target = root.resolve(stagedFile.getName());
+        Files.move(stagedFile.toPath(), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return target.toFile();
+    }
+
+    /**
+     * 生成产物的索引键
+     * @param videoId 视频ID
+     * @param formatSelector yt-dlp格式选择器
+     * @return 索引键，无法识别视频ID时返回null（不缓存）
+     */
+    public static String artifactKey(String videoId, String formatSelector) {
+        if (videoId == null) {
+            return null;
+        }
+        return videoId + "|" + formatSelector;
+    }
+
+    /**
+     * 查找已完成的产物，文件丢失或大小不符时从索引中移除
+     * @param key 索引键
+     * @return 产物信息，不存在时返回null
+     */
+    public Artifact lookup(String key) {
+        if (key == null) {
+            return null;
+        }
+        Artifact artifact = artifacts.get(key);
+        if (artifact == null) {
+            return null;
+        }
+        File file = new File(artifact.getPath());
+        if (!file.isFile() || file.length() != artifact.getSize()) {
+            logger.warn("产物文件已丢失或被修改，移出索引: {}", artifact.getPath());
+            if (artifacts.remove(key, artifact)) {
+                artifactsByPath.remove(artifact.getPath(), artifact);
+                saveIndex();
+            }
+            return null;
+        }
+        artifact.setLastAccessAt(System.currentTimeMillis());
+        indexDirty.set(true);
+        return artifact;
+    }
+
+    /**
+     * 登记下载完成的文件，计算校验和并写入索引
+     * @param key 索引键
+     * @param file 下载完成的文件
+     * @return 产物信息
+     */
+    public Artifact register(String key, File file) throws IOException {
+        Artifact artifact = new Artifact();
+        artifact.setKey(key);
+        artifact.setPath(file.getAbsolutePath());
+        artifact.setSize(file.length());
+        artifact.setSha256(sha256(file.toPath()));
+        artifact.setCreatedAt(System.currentTimeMillis());
+        artifact.setLastAccessAt(artifact.getCreatedAt());
+        if (key != null) {
+            Artifact replaced = artifacts.put(key, artifact);
+            if (replaced != null) {
+                artifactsByPath.remove(replaced.getPath(), replaced);
+            }
+            artifactsByPath.put(artifact.getPath(), artifact);
+            saveIndex();
+        }
+        logger.info("登记下载产物: {} ({} 字节, sha256={})", artifact.getPath(), artifact.getSize(), artifact.getSha256());
+        return artifact;
+    }
+
+    /**
+     * 记录产物文件被发送给客户端，发送过的产物可以优先被回收
+     * @param path 文件路径
+     */
+    public void markDelivered(String path) {
+        Artifact artifact = artifactsByPath.get(path);
+        if (artifact != null) {
+            long now = System.currentTimeMillis();
+            artifact.setLastAccessAt(now);
+            artifact.setDeliveredAt(now);
+            indexDirty.set(true);
+        }
+    }
+
+    /**
+     * 按文件路径查找产物的sha256，用作HTTP缓存的ETag，不刷新访问时间
+     * @param path 文件路径
+     * @return sha256，文件未登记时返回null
+     */
+    public String getSha256(String path) {
+        Artifact artifact = artifactsByPath.get(path);
+        return artifact != null ? artifact.getSha256() : null;
+    }
+
+    /**
+     * 所有已登记产物的总字节数
+     */
+    public long getTotalSize() {
+        long total = 0;
+        for (Artifact artifact : artifacts.values()) {
+            total += artifact.getSize();
+        }
+        return total;
+    }
+
+    /**
+     * 已登记的产物，按最后访问时间从早到晚排序
+     */
+    public List<Artifact> listByLastAccess() {
+        List<Artifact> list = new ArrayList<>(artifacts.values());
+        list.sort(Comparator.comparingLong(Artifact::getLastAccessAt));
+        return list;
+    }
+
+    /**
+     * 移出索引并删除产物文件
+     * @return 文件已删除（或已不存在）时返回true
+     */
+    public boolean evict(Artifact artifact) {
+        if (!artifacts.remove(artifact.getKey(), artifact)) {
+            return false;
+        }
+        artifactsByPath.remove(artifact.getPath(), artifact);
+        saveIndex();
+        File file = new File(artifact.getPath());
+        if (file.exists() && !file.delete()) {
+            logger.warn("删除产物文件失败: {}", artifact.getPath());
+            return false;
+        }
+        logger.info("回收下载产物: {} ({} 字节)", artifact.getPath(), artifact.getSize());
+        return true;
+    }
+
+    private void loadIndex() {
+        if (!Files.isRegularFile(indexFile)) {
+            return;
+        }
+        try {
+            List<Artifact> list = objectMapper.readValue(indexFile.toFile(), INDEX_TYPE);
+            for (Artifact artifact : list) {
+                File file = new File(artifact.getPath());
+                if (artifact.getKey() != null && file.isFile() && file.length() == artifact.getSize()) {
+                    artifacts.put(artifact.getKey(), artifact);
+                    artifactsByPath.put(artifact.getPath(), artifact);
+                }
+            }
+            logger.info("加载产物索引: {} 条有效记录", artifacts.size());
+        } catch (IOException e) {
+            logger.warn("读取产物索引失败，将重新建立: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 保存尚未写入的访问和发送时间
+     */
+    private void flushIndex() {
+        if (indexDirty.get()) {
+            saveIndex();
+        }
+    }
+
+    private synchronized void saveIndex() {
+        // 写入前清除标记，写入期间的新变化留到下一次
+        indexDirty.set(false);
+        try {
+            // 先写临时文件再替换，避免索引文件写坏
+            Path temp = Files.createTempFile(root, ".artifact-index", ".tmp");
+            objectMapper.writeValue(temp.toFile(), new ArrayList<>(artifacts.values()));
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            indexDirty.set(true);
+            logger.error("保存产物索引失败: {}", e.getMessage());
+        }
+    }
+
+    private static String sha256(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * 下载产物信息
+     */
+    public static class Artifact {
+        private String key;
+        private String path;
+        private long size;
+        private String sha256;
+        private long createdAt;
+        private volatile long lastAccessAt;
+        // 最后一次发送给客户端的时间，未发送过时为0
+        private volatile long deliveredAt;
+
+        public String getKey() {
+            return key;
+        }
+
+        public void setKey(String key) {
+            this.key = key;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public void setSha256(String sha256) {
+            this.sha256 = sha256;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public void setCreatedAt(long createdAt) {
+            this.createdAt = createdAt;
+        }
+
+        public long getLastAccessAt() {
+            return lastAccessAt;
+        }
+
+        public void setLastAccessAt(long lastAccessAt) {
+            this.lastAccessAt = lastAccessAt;
+        }
+
+        public long getDeliveredAt() {
+            return deliveredAt;
+        }
+
+        public void setDeliveredAt(long deliveredAt) {
+            this.deliveredAt = deliveredAt;
+        }
+    }
+}
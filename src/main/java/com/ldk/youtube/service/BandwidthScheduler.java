@@ -0,0 +1,210 @@
+package com.ldk.youtube.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 全局带宽调度
+ * 把配置的总速率平均分给正在下载数据的任务，每个任务一个令牌桶：按分到的速率补充令牌，按进度行报告的
+ * 新下载字节数扣除令牌，令牌透支时暂停进程（SIGSTOP），补回后恢复（SIGCONT）。
+ * yt-dlp的 --limit-rate 只在启动时生效，无法随任务数变化调整，所以运行中的再分配通过暂停/恢复实现；
+ * 任务开始或结束后，下一次检查就按新的份额补充令牌。
+ * 总速率为0时不启用，暂停/恢复只支持类Unix系统。
+ */
+@Component
+public class BandwidthScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(BandwidthScheduler.class);
+
+    // 任务多久没有新下载数据时不再参与分配（如合并阶段），单位毫秒
+    private static final long IDLE_AFTER_MS = 3000;
+
+    // 每个令牌桶最多积攒的令牌，以秒计的份额
+    private static final double BURST_SECONDS = 1.0;
+
+    // 所有下载任务的总速率（字节/秒），0表示不限制
+    @Value("${youtube.bandwidth.total-bytes-per-second:0}")
+    private long totalBytesPerSecond;
+
+    // 令牌补充和暂停检查的间隔（毫秒）
+    @Value("${youtube.bandwidth.interval-ms:250}")
+    private long intervalMs;
+
+    // 单次暂停的最长时间（毫秒），避免连接因长时间无读取而超时
+    @Value("${youtube.bandwidth.max-pause-ms:2000}")
+    private long maxPauseMs;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "bandwidth-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::rebalance, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        logger.info("全局下载带宽限制: {} 字节/秒", totalBytesPerSecond);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        for (Bucket bucket : buckets.values()) {
+            bucket.close();
+        }
+    }
+
+    /**
+     * 是否启用了全局带宽限制
+     */
+    public boolean isEnabled() {
+        return totalBytesPerSecond > 0;
+    }
+
+    /**
+     * 单个下载进程的速率上限（字节/秒），作为 --limit-rate 参数，不限制时返回0
+     * 只有一个任务时由yt-dlp自己平滑限速，多个任务时再由令牌桶分配
+     */
+    public long getProcessRateLimit() {
+        return totalBytesPerSecond;
+    }
+
+    /**
+     * 登记开始下载的进程
+     */
+    public void register(String taskId, Process process) {
+        if (isEnabled()) {
+            buckets.put(taskId, new Bucket(taskId, process));
+        }
+    }
+
+    /**
+     * 取消登记，进程被暂停时先恢复
+     */
+    public void unregister(String taskId) {
+        Bucket bucket = buckets.remove(taskId);
+        if (bucket != null) {
+            bucket.close();
+        }
+    }
+
+    /**
+     * 记录任务新下载的字节数，在输出读取线程中调用
+     */
+    public void recordBytes(String taskId, long bytes) {
+        if (bytes <= 0 || buckets.isEmpty()) {
+            return;
+        }
+        Bucket bucket = buckets.get(taskId);
+        if (bucket != null) {
+            bucket.consumed.addAndGet(bytes);
+            bucket.lastBytesAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 按当前活跃任务数重新计算份额，补充令牌并暂停或恢复进程
+     */
+    private void rebalance() {
+        try {
+            long now = System.currentTimeMillis();
+            int active = 0;
+            for (Bucket bucket : buckets.values()) {
+                if (bucket.isActive(now)) {
+                    active++;
+                }
+            }
+            if (active == 0) {
+                return;
+            }
+            double share = (double) totalBytesPerSecond / active;
+            for (Bucket bucket : buckets.values()) {
+                bucket.refill(now, share);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("带宽调度失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 单个下载任务的令牌桶
+     */
+    private class Bucket {
+        private final String taskId;
+        private final Process process;
+        private final AtomicLong consumed = new AtomicLong();
+        private volatile long lastBytesAt = System.currentTimeMillis();
+        private long lastRefillAt = System.currentTimeMillis();
+        private double tokens;
+        private volatile boolean paused;
+        private long pausedUntil;
+        // 已取消登记，不再暂停
+        private boolean closed;
+
+        Bucket(String taskId, Process process) {
+            this.taskId = taskId;
+            this.process = process;
+        }
+
+        boolean isActive(long now) {
+            // 被暂停的任务没有新数据，仍然算作活跃
+            return paused || now - lastBytesAt < IDLE_AFTER_MS;
+        }
+
+        synchronized void refill(long now, double share) {
+            if (closed) {
+                return;
+            }
+            double elapsedSeconds = (now - lastRefillAt) / 1000.0;
+            lastRefillAt = now;
+            if (isActive(now)) {
+                tokens = Math.min(tokens + share * elapsedSeconds, share * BURST_SECONDS);
+            }
+            tokens -= consumed.getAndSet(0);
+
+            if (paused) {
+                if (tokens >= 0 || now >= pausedUntil) {
+                    resume();
+                }
+            } else if (tokens < 0) {
+                long pauseMs = Math.min(maxPauseMs, (long) (-tokens / share * 1000));
+                if (pauseMs >= intervalMs && ProcessSupport.suspend(process)) {
+                    paused = true;
+                    pausedUntil = now + pauseMs;
+                    logger.debug("任务 [{}] 超出带宽份额，暂停 {} 毫秒", taskId, pauseMs);
+                }
+            }
+        }
+
+        private void resume() {
+            if (paused) {
+                paused = false;
+                ProcessSupport.resume(process);
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            resume();
+        }
+    }
+}
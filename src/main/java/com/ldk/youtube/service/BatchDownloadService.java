@@ -0,0 +1,524 @@
+package com.ldk.youtube.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * 批量下载服务
+ * 一个批次包含多个视频URL或一个播放列表，批次内同时进行的下载数不超过批次的并行度，
+ * 其余条目在批次内排队，不会一次性占满下载线程池的队列
+ */
+@Service
+public class BatchDownloadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchDownloadService.class);
+
+    // 展开播放列表的超时时间（分钟）
+    private static final int EXPAND_TIMEOUT_MINUTES = 2;
+
+    // 进程退出后等待错误流读取完毕的最长时间（秒）
+    private static final int ERROR_DRAIN_TIMEOUT_SECONDS = 5;
+
+    // 失败时保留的错误输出行数
+    private static final int MAX_ERROR_LINES = 50;
+
+    private final ConcurrentHashMap<String, DownloadBatch> batches = new ConcurrentHashMap<>();
+
+    @Autowired
+    private YoutubeDownloadService youtubeDownloadService;
+
+    @Autowired
+    private ToolchainRegistry toolchainRegistry;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    @Autowired
+    private ProcessOutputPump processOutputPump;
+
+    // 单个批次的最大条目数
+    @Value("${youtube.batch.max-items:500}")
+    private int maxItems;
+
+    // 未指定时的批次并行度
+    @Value("${youtube.batch.default-parallelism:2}")
+    private int defaultParallelism;
+
+    // 批次并行度上限
+    @Value("${youtube.batch.max-parallelism:5}")
+    private int maxParallelism;
+
+    // 检查批次进度、补充下载的间隔（毫秒）
+    @Value("${youtube.batch.schedule-interval-ms:1000}")
+    private long scheduleIntervalMs;
+
+    // 已结束的批次在最后一次访问后保留的时间（分钟）
+    @Value("${youtube.batch.finished-ttl-minutes:60}")
+    private long finishedTtlMinutes;
+
+    private ScheduledExecutorService scheduler;
+
+    // 展开播放列表需要调用yt-dlp，单独使用一个线程，不阻塞批次调度
+    private ExecutorService expander;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "download-batch-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::scheduleBatches, scheduleIntervalMs, scheduleIntervalMs,
+                TimeUnit.MILLISECONDS);
+        expander = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "download-batch-expander");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        expander.shutdownNow();
+    }
+
+    /**
+     * 提交批量下载
+     * @param urls 视频URL列表，可为空
+     * @param playlistUrl 播放列表URL，可为空，展开后追加到urls之后
+     * @param quality 视频质量
+     * @param parallelism 批次内同时进行的下载数，为null时使用默认值
+     * @param clientId 提交批次的客户端标识，批次内的下载按批量优先级与该客户端的其他下载一起调度
+     * @return 批次ID
+     * @throws IllegalArgumentException 参数不合法时抛出
+     */
+    public String submitBatch(List<String> urls, String playlistUrl, String quality, Integer parallelism,
+                              String clientId) {
+        List<String> cleaned = urls == null ? new ArrayList<>() : urls.stream()
+                .filter(url -> url != null && !url.trim().isEmpty())
+                .map(String::trim)
+                .distinct()
+                .collect(Collectors.toList());
+        boolean hasPlaylist = playlistUrl != null && !playlistUrl.trim().isEmpty();
+        if (cleaned.isEmpty() && !hasPlaylist) {
+            throw new IllegalArgumentException("视频URL列表和播放列表URL不能都为空");
+        }
+        if (cleaned.size() > maxItems) {
+            throw new IllegalArgumentException("单个批次最多 " + maxItems + " 个视频");
+        }
+        int effectiveParallelism = parallelism == null ? defaultParallelism : parallelism;
+        if (effectiveParallelism < 1 || effectiveParallelism > maxParallelism) {
+            throw new IllegalArgumentException("并行度必须在 1 到 " + maxParallelism + " 之间");
+        }
+
+        String batchId = clusterNode.newId();
+        DownloadBatch batch = new DownloadBatch(batchId, quality, effectiveParallelism, clientId);
+        batches.put(batchId, batch);
+
+        if (hasPlaylist) {
+            expander.execute(() -> expandAndStart(batch, cleaned, playlistUrl.trim()));
+        } else {
+            batch.start(cleaned);
+        }
+        logger.info("批量下载已提交 [{}]: {} 个视频{}，并行度 {}", batchId, cleaned.size(),
+                hasPlaylist ? "和播放列表 " + playlistUrl : "", effectiveParallelism);
+        return batchId;
+    }
+
+    /**
+     * 获取批次状态，同时刷新批次内各下载任务的访问时间
+     * @param batchId 批次ID
+     * @return 批次，不存在时返回null
+     */
+    public DownloadBatch getBatch(String batchId) {
+        DownloadBatch batch = batches.get(batchId);
+        if (batch == null) {
+            return null;
+        }
+        batch.touch();
+        for (BatchItem item : batch.getItems()) {
+            if (item.getTaskId() != null) {
+                youtubeDownloadService.getDownloadStatus(item.getTaskId());
+            }
+        }
+        return batch;
+    }
+
+    private void expandAndStart(DownloadBatch batch, List<String> urls, String playlistUrl) {
+        try {
+            Set<String> all = new LinkedHashSet<>(urls);
+            all.addAll(expandPlaylist(playlistUrl));
+            if (all.size() > maxItems) {
+                batch.fail("播放列表过大，单个批次最多 " + maxItems + " 个视频");
+                return;
+            }
+            batch.start(new ArrayList<>(all));
+            logger.info("批量下载 [{}] 播放列表展开完成，共 {} 个视频", batch.getBatchId(), all.size());
+        } catch (Exception e) {
+            logger.error("批量下载 [{}] 展开播放列表失败: {}", batch.getBatchId(), e.getMessage());
+            batch.fail("展开播放列表失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 调用yt-dlp列出播放列表中的视频，不解析每个视频的详细信息
+     * @param playlistUrl 播放列表URL
+     * @return 视频URL列表
+     */
+    private List<String> expandPlaylist(String playlistUrl) throws Exception {
+        if (!toolchainRegistry.isAvailable(ToolchainRegistry.YT_DLP)) {
+            throw new IllegalStateException("yt-dlp命令不可用");
+        }
+        Process process = new ProcessBuilder(
+                toolchainRegistry.getCommand(ToolchainRegistry.YT_DLP),
+                "--flat-playlist",
+                "--print", "id",
+                "--no-warnings",
+                playlistUrl
+        ).start();
+
+        // 错误输出并发读取，避免写满管道；超时由调度线程结束进程，读取标准输出的循环随之结束
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Void> stderr = processOutputPump.pump(process, process.getErrorStream(), line -> {
+            if (errors.size() < MAX_ERROR_LINES) {
+                errors.add(line);
+            }
+        }, "playlist stderr");
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> {
+            timedOut.set(true);
+            ProcessSupport.destroyTree(process);
+        }, EXPAND_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+
+        List<String> videoUrls = new ArrayList<>();
+        try {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String id = line.trim();
+                    if (!id.isEmpty() && videoUrls.size() <= maxItems) {
+                        videoUrls.add("https://www.youtube.com/watch?v=" + id);
+                    }
+                }
+            }
+            process.waitFor();
+        } finally {
+            timeout.cancel(false);
+            if (process.isAlive()) {
+                ProcessSupport.destroyTree(process);
+            }
+        }
+        if (timedOut.get()) {
+            throw new IllegalStateException("展开播放列表超时");
+        }
+        if (process.exitValue() != 0) {
+            try {
+                stderr.get(ERROR_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                logger.debug("展开播放列表: 等待错误输出超时");
+            }
+            String error;
+            synchronized (errors) {
+                error = String.join("\n", errors);
+            }
+            throw new IllegalStateException(error.isEmpty() ? "yt-dlp退出码: " + process.exitValue() : error);
+        }
+        if (videoUrls.isEmpty()) {
+            throw new IllegalStateException("播放列表为空");
+        }
+        return videoUrls;
+    }
+
+    /**
+     * 定期检查所有批次：同步各条目的下载状态，在并行度允许时提交下一个条目，回收过期批次
+     */
+    private void scheduleBatches() {
+        long now = System.currentTimeMillis();
+        for (DownloadBatch batch : batches.values()) {
+            try {
+                if ("downloading".equals(batch.getStatus())) {
+                    scheduleBatch(batch);
+                } else if (batch.isFinished()
+                        && now - batch.getLastAccessAt() > TimeUnit.MINUTES.toMillis(finishedTtlMinutes)) {
+                    batches.remove(batch.getBatchId());
+                    logger.info("回收批量下载 [{}]", batch.getBatchId());
+                }
+            } catch (Exception e) {
+                logger.error("调度批量下载 [{}] 失败: {}", batch.getBatchId(), e.getMessage(), e);
+            }
+        }
+    }
+
+    private void scheduleBatch(DownloadBatch batch) {
+        int running = 0;
+        for (BatchItem item : batch.getItems()) {
+            if (item.getTaskId() != null && !item.isFinished()) {
+                item.refresh(youtubeDownloadService.peekDownloadStatus(item.getTaskId()));
+                if (!item.isFinished()) {
+                    running++;
+                }
+            }
+        }
+
+        for (BatchItem item : batch.getItems()) {
+            if (running >= batch.getParallelism()) {
+                break;
+            }
+            if (item.getTaskId() != null) {
+                continue;
+            }
+            try {
+                String taskId = youtubeDownloadService.submitDownload(item.getUrl(), batch.getQuality(),
+                        batch.getClientId(), DownloadScheduler.PRIORITY_BATCH);
+                item.setTaskId(taskId);
+                item.refresh(youtubeDownloadService.peekDownloadStatus(taskId));
+                if (!item.isFinished()) {
+                    running++;
+                }
+            } catch (DownloadRejectedException e) {
+                // 下载队列已满，下一轮再提交
+                logger.debug("批量下载 [{}] 下载队列已满，稍后提交剩余条目", batch.getBatchId());
+                break;
+            }
+        }
+
+        if (batch.getItems().stream().allMatch(BatchItem::isFinished)) {
+            batch.finish();
+            logger.info("批量下载 [{}] 结束: {}", batch.getBatchId(), batch.getCounts());
+        }
+    }
+
+    /**
+     * 下载批次
+     */
+    public static class DownloadBatch {
+        private final String batchId;
+        private final String quality;
+        private final int parallelism;
+        private final String clientId;
+        private final long createdAt;
+        private volatile String status; // pending（展开播放列表中）, downloading, completed, failed
+        private volatile String message;
+        private volatile List<BatchItem> items = Collections.emptyList();
+        private volatile long finishedAt;
+        private volatile long lastAccessAt;
+
+        public DownloadBatch(String batchId, String quality, int parallelism, String clientId) {
+            this.batchId = batchId;
+            this.quality = quality;
+            this.parallelism = parallelism;
+            this.clientId = clientId;
+            this.status = "pending";
+            this.createdAt = System.currentTimeMillis();
+            this.lastAccessAt = createdAt;
+        }
+
+        void start(List<String> urls) {
+            List<BatchItem> list = new ArrayList<>(urls.size());
+            for (String url : urls) {
+                list.add(new BatchItem(url));
+            }
+            items = Collections.unmodifiableList(list);
+            status = "downloading";
+        }
+
+        void fail(String message) {
+            this.message = message;
+            this.finishedAt = System.currentTimeMillis();
+            this.status = "failed";
+        }
+
+        void finish() {
+            this.finishedAt = System.currentTimeMillis();
+            this.status = "completed";
+        }
+
+        void touch() {
+            lastAccessAt = System.currentTimeMillis();
+        }
+
+        public String getBatchId() {
+            return batchId;
+        }
+
+        public String getQuality() {
+            return quality;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public List<BatchItem> getItems() {
+            return items;
+        }
+
+        public long getLastAccessAt() {
+            return lastAccessAt;
+        }
+
+        public boolean isFinished() {
+            return "completed".equals(status) || "failed".equals(status);
+        }
+
+        /**
+         * 各状态的条目数
+         */
+        public Map<String, Integer> getCounts() {
+            Map<String, Integer> counts = new HashMap<>();
+            counts.put("pending", 0);
+            counts.put("downloading", 0);
+            counts.put("completed", 0);
+            counts.put("failed", 0);
+            for (BatchItem item : items) {
+                counts.merge(item.getStatus(), 1, Integer::sum);
+            }
+            return counts;
+        }
+
+        /**
+         * 整体进度：已结束的条目按100%计算
+         */
+        public float getProgress() {
+            List<BatchItem> current = items;
+            if (current.isEmpty()) {
+                return 0;
+            }
+            float sum = 0;
+            for (BatchItem item : current) {
+                sum += item.isFinished() ? 100 : item.getProgress();
+            }
+            return sum / current.size();
+        }
+
+        /**
+         * 转换为批次状态接口使用的Map
+         */
+        public Map<String, Object> toStatusMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("batchId", batchId);
+            map.put("status", status);
+            map.put("quality", quality);
+            map.put("parallelism", parallelism);
+            map.put("progress", getProgress());
+            map.put("total", items.size());
+            map.put("counts", getCounts());
+            map.put("elapsedTimeMs", (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - createdAt);
+            if (message != null) {
+                map.put("message", message);
+            }
+            List<Map<String, Object>> itemMaps = new ArrayList<>(items.size());
+            for (BatchItem item : items) {
+                itemMaps.add(item.toStatusMap());
+            }
+            map.put("items", itemMaps);
+            return map;
+        }
+    }
+
+    /**
+     * 批次中的一个视频
+     */
+    public static class BatchItem {
+        private final String url;
+        private volatile String taskId;
+        private volatile String status = "pending";
+        private volatile float progress;
+        private volatile String message;
+
+        public BatchItem(String url) {
+            this.url = url;
+        }
+
+        /**
+         * 从下载任务同步状态
+         * @param download 下载任务，已被回收时为null
+         */
+        void refresh(YoutubeDownloadService.DownloadStatus download) {
+            if (download == null) {
+                message = "下载任务已被回收";
+                status = "failed";
+                return;
+            }
+            progress = download.getProgress();
+            message = download.getMessage();
+            status = download.getStatus();
+        }
+
+        void setTaskId(String taskId) {
+            this.taskId = taskId;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getTaskId() {
+            return taskId;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public float getProgress() {
+            return progress;
+        }
+
+        public boolean isFinished() {
+            return "completed".equals(status) || "failed".equals(status);
+        }
+
+        public Map<String, Object> toStatusMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("url", url);
+            map.put("taskId", taskId);
+            map.put("status", status);
+            map.put("progress", progress);
+            if (message != null) {
+                map.put("message", message);
+            }
+            return map;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.ldk.youtube.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 本实例在集群中的节点标识
+ * 任务ID和批次ID以节点标识开头（节点标识_UUID），任何实例收到请求时都能从ID判断任务属于哪个节点，
+ * 再重定向或代理到该节点；没有节点前缀的ID（升级前创建的任务）视为本节点的任务。
+ */
+@Component
+public class ClusterNode {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterNode.class);
+
+    // 节点标识和UUID之间的分隔符，节点标识和UUID中都不会出现
+    public static final char ID_SEPARATOR = '_';
+
+    private static final int MAX_NODE_ID_LENGTH = 32;
+
+    // 节点标识，为空时使用主机名；多个实例在同一主机上时必须分别配置
+    @Value("${youtube.cluster.node-id:}")
+    private String configuredNodeId;
+
+    // 其他节点访问本节点的地址，如 http://10.0.0.1:8080，登记到共享任务存储中
+    @Value("${youtube.cluster.advertise-url:}")
+    private String advertiseUrl;
+
+    // 静态配置的节点地址，如 node-a=http://10.0.0.1:8080,node-b=http://10.0.0.2:8080，优先于共享任务存储中登记的地址
+    @Value("${youtube.cluster.peers:}")
+    private String peers;
+
+    private String nodeId;
+
+    private Map<String, String> peerUrls = Collections.emptyMap();
+
+    @PostConstruct
+    public void init() {
+        nodeId = sanitize(configuredNodeId);
+        if (nodeId == null) {
+            try {
+                nodeId = sanitize(InetAddress.getLocalHost().getHostName());
+            } catch (UnknownHostException e) {
+                logger.warn("无法获取主机名: {}", e.getMessage());
+            }
+        }
+        if (nodeId == null) {
+            nodeId = UUID.randomUUID().toString().substring(0, 8);
+        }
+
+        Map<String, String> urls = new HashMap<>();
+        for (String peer : peers.split(",")) {
+            int eq = peer.indexOf('=');
+            if (eq <= 0) {
+                continue;
+            }
+            String id = sanitize(peer.substring(0, eq));
+            String url = trimUrl(peer.substring(eq + 1));
+            if (id != null && url != null) {
+                urls.put(id, url);
+            }
+        }
+        peerUrls = Collections.unmodifiableMap(urls);
+        logger.info("节点标识: {}，对外地址: {}，静态配置的节点: {}", nodeId,
+                getAdvertiseUrl() != null ? getAdvertiseUrl() : "未配置", peerUrls.keySet());
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 其他节点访问本节点的地址，未配置时返回null
+     */
+    public String getAdvertiseUrl() {
+        return trimUrl(advertiseUrl);
+    }
+
+    /**
+     * 生成属于本节点的ID
+     */
+    public String newId() {
+        return nodeId + ID_SEPARATOR + UUID.randomUUID();
+    }
+
+    /**
+     * 从ID中取出所属节点
+     * @return 节点标识，ID没有节点前缀时返回null
+     */
+    public static String ownerOf(String id) {
+        if (id == null) {
+            return null;
+        }
+        int index = id.indexOf(ID_SEPARATOR);
+        return index > 0 ? id.substring(0, index) : null;
+    }
+
+    /**
+     * ID是否属于本节点，没有节点前缀的ID也视为本节点的
+     */
+    public boolean isLocal(String id) {
+        String owner = ownerOf(id);
+        return owner == null || owner.equals(nodeId);
+    }
+
+    /**
+     * 静态配置的节点地址
+     * @return 地址，未配置时返回null
+     */
+    public String getPeerUrl(String nodeId) {
+        return peerUrls.get(nodeId);
+    }
+
+    /**
+     * 节点标识只保留小写字母、数字和连字符
+     */
+    private static String sanitize(String value) {
+        if (value == null) {
+            return null;
+        }
+        String id = value.trim().toLowerCase().replaceAll("[^a-z0-9-]+", "-").replaceAll("^-+|-+$", "");
+        if (id.length() > MAX_NODE_ID_LENGTH) {
+            id = id.substring(0, MAX_NODE_ID_LENGTH);
+        }
+        return id.isEmpty() ? null : id;
+    }
+
+    private static String trimUrl(String url) {
+        if (url == null || url.trim().isEmpty()) {
+            return null;
+        }
+        String trimmed = url.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+}
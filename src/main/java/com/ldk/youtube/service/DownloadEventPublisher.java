@@ -0,0 +1,225 @@
+package com.ldk.youtube.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 下载进度事件推送（Server-Sent Events）
+ * 按固定的最小间隔合并推送任务状态变化，替代前端轮询。
+ * 只推送本节点的任务，订阅中其他节点的任务推送一次remote事件，由客户端按任务单独订阅（请求会转到所属节点）。
+ * 定时线程只负责分派，实际发送在推送线程池中进行，每个连接同时最多一个发送任务；
+ * 发送阻塞（客户端不读数据、TCP窗口占满）的连接只会错过自己的推送，超过期限后断开，不影响其他连接。
+ */
+@Component
+public class DownloadEventPublisher {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadEventPublisher.class);
+
+    @Autowired
+    private YoutubeDownloadService youtubeDownloadService;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    // 两次推送之间的最小间隔（毫秒），期间的多次进度变化只推送最新一次
+    @Value("${youtube.events.min-interval-ms:500}")
+    private long minIntervalMs;
+
+    // SSE连接超时时间（毫秒）
+    @Value("${youtube.events.timeout-ms:1800000}")
+    private long emitterTimeoutMs;
+
+    // 推送线程数
+    @Value("${youtube.events.send-threads:4}")
+    private int sendThreads;
+
+    // 单次推送的最长耗时（毫秒），超过后断开该连接
+    @Value("${youtube.events.send-timeout-ms:10000}")
+    private long sendTimeoutMs;
+
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService sender;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "download-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger senderIndex = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(sendThreads, sendThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "download-events-send-" + senderIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        sender = pool;
+        scheduler.scheduleWithFixedDelay(this::flush, minIntervalMs, minIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        sender.shutdownNow();
+        for (Subscription subscription : subscriptions) {
+            subscription.emitter.complete();
+        }
+        subscriptions.clear();
+    }
+
+    /**
+     * 订阅一个或多个任务的状态事件
+     * @param taskIds 任务ID列表
+     * @return SSE发射器，所有任务结束后自动关闭
+     */
+    public SseEmitter subscribe(Collection<String> taskIds) {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        Subscription subscription = new Subscription(emitter, taskIds);
+        emitter.onCompletion(() -> subscriptions.remove(subscription));
+        emitter.onTimeout(() -> subscriptions.remove(subscription));
+        emitter.onError(e -> subscriptions.remove(subscription));
+        subscriptions.add(subscription);
+        logger.debug("新增下载事件订阅: {}", taskIds);
+        return emitter;
+    }
+
+    /**
+     * 把各订阅者的推送分派到推送线程池，上一次推送尚未完成的连接本轮跳过，推送超时的连接断开
+     */
+    private void flush() {
+        long now = System.currentTimeMillis();
+        for (Subscription subscription : subscriptions) {
+            long sendingSince = subscription.sendingSince;
+            if (sendingSince > 0 && now - sendingSince > sendTimeoutMs) {
+                logger.warn("下载事件推送超过 {} 毫秒未完成，断开连接: {}", sendTimeoutMs, subscription.taskIds);
+                drop(subscription, new IOException("推送超时"));
+                continue;
+            }
+            if (!subscription.scheduled.compareAndSet(false, true)) {
+                continue;
+            }
+            try {
+                sender.execute(() -> send(subscription));
+            } catch (RejectedExecutionException e) {
+                subscription.scheduled.set(false);
+            }
+        }
+    }
+
+    private void send(Subscription subscription) {
+        subscription.sendingSince = System.currentTimeMillis();
+        try {
+            if (subscriptions.contains(subscription)) {
+                flush(subscription);
+            }
+        } catch (IOException | IllegalStateException e) {
+            // 客户端已断开
+            drop(subscription, e);
+        } catch (Exception e) {
+            logger.warn("推送下载事件失败: {}", e.getMessage());
+        } finally {
+            subscription.sendingSince = 0;
+            subscription.scheduled.set(false);
+        }
+    }
+
+    private void drop(Subscription subscription, Exception cause) {
+        if (subscriptions.remove(subscription)) {
+            subscription.emitter.completeWithError(cause);
+        }
+    }
+
+    private void flush(Subscription subscription) throws IOException {
+        Iterator<Map.Entry<String, Long>> iterator = subscription.sentVersions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            String taskId = entry.getKey();
+            YoutubeDownloadService.DownloadStatus status = youtubeDownloadService.getDownloadStatus(taskId);
+
+            if (status == null) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("taskId", taskId);
+                if (clusterNode.isLocal(taskId)) {
+                    data.put("status", "not_found");
+                } else {
+                    // 其他节点的任务，本节点没有它的状态，不能当作不存在
+                    data.put("status", "remote");
+                    data.put("node", ClusterNode.ownerOf(taskId));
+                }
+                subscription.emitter.send(SseEmitter.event().name("status").data(data, MediaType.APPLICATION_JSON));
+                iterator.remove();
+                continue;
+            }
+
+            long version = status.getVersion();
+            if (version == entry.getValue()) {
+                continue;
+            }
+            entry.setValue(version);
+            subscription.emitter.send(SseEmitter.event()
+                    .name("status")
+                    .id(taskId + ":" + version)
+                    .data(status.toStatusMap(), MediaType.APPLICATION_JSON));
+
+            if (status.isFinished()) {
+                iterator.remove();
+            }
+        }
+
+        if (subscription.sentVersions.isEmpty()) {
+            subscriptions.remove(subscription);
+            subscription.emitter.complete();
+        }
+    }
+
+    /**
+     * 一个SSE连接及其订阅的任务
+     */
+    private static class Subscription {
+        private final SseEmitter emitter;
+        private final Collection<String> taskIds;
+        // 任务ID -> 已推送的状态版本号，同一时间只有一个发送任务访问（由scheduled保证）
+        private final Map<String, Long> sentVersions = new LinkedHashMap<>();
+        // 已分派发送任务且尚未结束
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // 当前发送任务开始执行的时间，未在发送时为0；在线程池中排队的时间不计入
+        private volatile long sendingSince;
+
+        Subscription(SseEmitter emitter, Collection<String> taskIds) {
+            this.emitter = emitter;
+            this.taskIds = taskIds;
+            for (String taskId : taskIds) {
+                sentVersions.put(taskId, -1L);
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.ldk.youtube.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 下载流程的监控指标，通过 /actuator/prometheus 导出
+ * <ul>
+ *     <li>下载线程池和后处理线程池：executor_* （活跃线程数、排队数等）</li>
+ *     <li>youtube_tasks_registered / youtube_processes_running：登记的任务数、运行中的yt-dlp进程数</li>
+ *     <li>youtube_phase_duration_seconds{phase}：工具探测、视频信息解析、下载、合并（含其他后处理）、文件发送各阶段耗时</li>
+ *     <li>youtube_downloaded_bytes_total / youtube_served_bytes_total：下载和发送的字节数，用rate()得到每秒字节数</li>
+ *     <li>youtube_downloads_total{outcome, error}：下载结果，失败时按错误类型区分</li>
+ *     <li>youtube_scheduler_queued / youtube_queue_wait_seconds{priority}：排队的任务数，按优先级统计的排队时间（含分位数）</li>
+ *     <li>youtube_workers_live / youtube_workers_idle / youtube_worker_jobs_total{result}：yt-dlp常驻工作进程数和处理结果</li>
+ * </ul>
+ */
+@Component
+public class DownloadMetrics {
+
+    public static final String PHASE_PROBE = "probe";
+    public static final String PHASE_METADATA = "metadata";
+    public static final String PHASE_DOWNLOAD = "download";
+    public static final String PHASE_MERGE = "merge";
+    public static final String PHASE_ENCODE = "encode";
+    public static final String PHASE_DELIVERY = "delivery";
+
+    public static final String OUTCOME_COMPLETED = "completed";
+    public static final String OUTCOME_REUSED = "reused";
+    public static final String OUTCOME_FAILED = "failed";
+    public static final String OUTCOME_REJECTED = "rejected";
+
+    public static final String WORKER_OK = "ok";
+    public static final String WORKER_ERROR = "error";
+    public static final String WORKER_FALLBACK = "fallback";
+
+    public static final String ERROR_NONE = "none";
+    public static final String ERROR_FORBIDDEN = "forbidden";
+    public static final String ERROR_UNAVAILABLE = "unavailable";
+    public static final String ERROR_COPYRIGHT = "copyright";
+    public static final String ERROR_TIMEOUT = "timeout";
+    public static final String ERROR_STALLED = "stalled";
+    public static final String ERROR_CANCELLED = "cancelled";
+    public static final String ERROR_ABANDONED = "abandoned";
+    public static final String ERROR_TOOLCHAIN = "toolchain";
+    public static final String ERROR_NO_FILE = "no_file";
+    public static final String ERROR_FILE_TOO_SMALL = "file_too_small";
+    public static final String ERROR_NO_SPACE = "no_space";
+    public static final String ERROR_POSTPROCESS = "postprocess";
+    public static final String ERROR_QUEUE_FULL = "queue_full";
+    public static final String ERROR_EXCEPTION = "exception";
+    public static final String ERROR_OTHER = "other";
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    @Qualifier("taskExecutor")
+    private ThreadPoolTaskExecutor taskExecutor;
+
+    private final Map<String, Timer> phaseTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> outcomeCounters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> queueTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> workerCounters = new ConcurrentHashMap<>();
+
+    private Counter bytesDownloaded;
+    private Counter bytesServed;
+
+    @PostConstruct
+    public void init() {
+        new ExecutorServiceMetrics(taskExecutor.getThreadPoolExecutor(), "taskExecutor", Tags.empty())
+                .bindTo(registry);
+        bytesDownloaded = Counter.builder("youtube.downloaded")
+                .description("yt-dlp已下载的字节数")
+                .baseUnit("bytes")
+                .register(registry);
+        bytesServed = Counter.builder("youtube.served")
+                .description("发送给客户端的文件字节数")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * 登记线程池的线程数、队列长度等指标
+     * @param executor 线程池
+     * @param name 指标中的线程池名称
+     */
+    public void bindExecutor(ExecutorService executor, String name) {
+        new ExecutorServiceMetrics(executor, name, Tags.empty()).bindTo(registry);
+    }
+
+    /**
+     * 登记Map大小作为指标，如下载任务表、运行中的进程表
+     * @param name 指标名
+     * @param description 指标说明
+     * @param map 要统计大小的Map
+     */
+    public void registerMapSize(String name, String description, Map<?, ?> map) {
+        Gauge.builder(name, map, Map::size)
+                .description(description)
+                .register(registry);
+    }
+
+    /**
+     * 登记任意数值作为指标，如调度器中排队的任务数
+     */
+    public void registerGauge(String name, String description, Supplier<Number> value) {
+        Gauge.builder(name, value)
+                .description(description)
+                .register(registry);
+    }
+
+    /**
+     * 记录下载任务在调度器中的排队时间
+     * @param priority 优先级：interactive、batch
+     * @param nanos 排队时间（纳秒）
+     */
+    public void recordQueueWait(String priority, long nanos) {
+        queueTimers.computeIfAbsent(priority, p -> Timer.builder("youtube.queue.wait")
+                .description("下载任务排队时间")
+                .tag("priority", p)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录一次由yt-dlp常驻工作进程获取视频信息的结果
+     * @param result 结果：{@link #WORKER_OK}、{@link #WORKER_ERROR}，或 {@link #WORKER_FALLBACK}（改为fork yt-dlp）
+     */
+    public void recordWorkerJob(String result) {
+        workerCounters.computeIfAbsent(result, r -> Counter.builder("youtube.worker.jobs")
+                .description("yt-dlp常驻工作进程处理的请求数")
+                .tag("result", r)
+                .register(registry))
+                .increment();
+    }
+
+    /**
+     * 记录一个阶段的耗时
+     * @param phase 阶段，如 {@link #PHASE_DOWNLOAD}
+     * @param nanos 耗时（纳秒）
+     */
+    public void recordPhase(String phase, long nanos) {
+        phaseTimers.computeIfAbsent(phase, p -> Timer.builder("youtube.phase.duration")
+                .description("下载流程各阶段耗时")
+                .tag("phase", p)
+                .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录yt-dlp新下载的字节数
+     */
+    public void addBytesDownloaded(long bytes) {
+        if (bytes > 0) {
+            bytesDownloaded.increment(bytes);
+        }
+    }
+
+    /**
+     * 记录发送给客户端的字节数
+     */
+    public void addBytesServed(long bytes) {
+        if (bytes > 0) {
+            bytesServed.increment(bytes);
+        }
+    }
+
+    /**
+     * 记录下载任务结果
+     * @param outcome 结果，如 {@link #OUTCOME_COMPLETED}
+     * @param error 失败类型，成功时为 {@link #ERROR_NONE}
+     */
+    public void recordOutcome(String outcome, String error) {
+        outcomeCounters.computeIfAbsent(outcome + "|" + error, key -> Counter.builder("youtube.downloads")
+                .description("下载任务结果")
+                .tag("outcome", outcome)
+                .tag("error", error)
+                .register(registry))
+                .increment();
+    }
+
+    /**
+     * 记录下载失败
+     * @param error 失败类型，如 {@link #ERROR_TIMEOUT}
+     */
+    public void recordFailure(String error) {
+        recordOutcome(OUTCOME_FAILED, error);
+    }
+}
@@ -0,0 +1,27 @@
+package com.ldk.youtube.service;
+
+/**
+ * 下载队列已满时抛出的异常
+ * 由控制器转换为 429 Too Many Requests 响应
+ */
+public class DownloadRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int queueSize;
+    private final int retryAfterSeconds;
+
+    public DownloadRejectedException(int queueSize, int retryAfterSeconds) {
+        super("下载队列已满，请稍后重试");
+        this.queueSize = queueSize;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,307 @@
+package com.ldk.youtube.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 下载任务调度器，代替下载线程池的先进先出队列
+ * <ul>
+ *     <li>优先级：单个下载（interactive）先于批量下载（batch）</li>
+ *     <li>同一优先级内，时长较短的视频先于长视频，时长取自视频信息缓存，未知时按中等时长处理</li>
+ *     <li>老化：任务每排队一段时间提升一级（长视频 → 未知时长 → 短视频 → 更高优先级），长视频和批量任务不会一直被插队</li>
+ *     <li>不同客户端之间轮流调度，每个客户端同时运行的下载数有上限，一个客户端提交大量任务不会挡住其他人</li>
+ * </ul>
+ * 下载线程池不再排队，只在有空闲线程时由这里提交任务；排队总数超过上限时拒绝新任务（接口返回429）。
+ */
+@Component
+public class DownloadScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadScheduler.class);
+
+    public static final int PRIORITY_INTERACTIVE = 0;
+    public static final int PRIORITY_BATCH = 1;
+
+    // 时长分级：短视频、未知时长、长视频
+    private static final int LENGTH_SHORT = 0;
+    private static final int LENGTH_UNKNOWN = 1;
+    private static final int LENGTH_LONG = 2;
+    private static final int LENGTH_CLASSES = 3;
+
+    @Autowired
+    @Qualifier("taskExecutor")
+    private ThreadPoolTaskExecutor taskExecutor;
+
+    @Autowired
+    private DownloadMetrics downloadMetrics;
+
+    // 排队任务总数上限，超过时拒绝新任务
+    @Value("${youtube.scheduler.max-queued:25}")
+    private int maxQueued;
+
+    // 每个客户端同时运行的下载数上限
+    @Value("${youtube.scheduler.max-running-per-client:2}")
+    private int maxRunningPerClient;
+
+    // 时长不超过该值（秒）的视频视为短视频，超过的视为长视频
+    @Value("${youtube.scheduler.short-video-seconds:1200}")
+    private long shortVideoSeconds;
+
+    // 任务每排队该时长（秒）提升一级，0表示不提升
+    @Value("${youtube.scheduler.aging-seconds:300}")
+    private long agingSeconds;
+
+    // 各客户端的排队任务，按插入顺序轮流调度
+    private final Map<String, ClientQueue> clients = new HashMap<>();
+    private final List<String> clientOrder = new ArrayList<>();
+    // 下一轮从clientOrder的这个位置开始查找
+    private int cursor;
+
+    private int queued;
+    private int running;
+    private long sequence;
+
+    private int maxRunning;
+    private boolean stopped;
+
+    @PostConstruct
+    public void init() {
+        maxRunning = taskExecutor.getMaxPoolSize();
+        downloadMetrics.registerGauge("youtube.scheduler.queued", "调度器中排队的下载任务数", this::getQueuedCount);
+        logger.info("下载调度: 同时下载数 {}，排队上限 {}，每个客户端同时下载数 {}",
+                maxRunning, maxQueued, maxRunningPerClient);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        // 排队中的任务已记入状态日志，下次启动时恢复
+        stopped = true;
+    }
+
+    /**
+     * 提交下载任务，有空闲下载线程时立即开始，否则排队
+     * @param taskId 任务ID，用于取消排队
+     * @param clientId 客户端标识
+     * @param priority 优先级，{@link #PRIORITY_INTERACTIVE} 或 {@link #PRIORITY_BATCH}
+     * @param durationSeconds 视频时长（秒），未知时为-1
+     * @param task 下载任务
+     * @return 是否接受了任务，排队已满时返回false
+     */
+    public synchronized boolean submit(String taskId, String clientId, int priority, long durationSeconds,
+                                       Runnable task) {
+        return submit(taskId, clientId, priority, durationSeconds, task, false);
+    }
+
+    /**
+     * 提交下载任务
+     * @param ignoreQueueLimit 为true时不受排队上限限制，用于重启后恢复之前已接受的任务
+     * @return 是否接受了任务，排队已满时返回false
+     */
+    public synchronized boolean submit(String taskId, String clientId, int priority, long durationSeconds,
+                                       Runnable task, boolean ignoreQueueLimit) {
+        if (!ignoreQueueLimit && queued >= maxQueued) {
+            return false;
+        }
+        ClientQueue client = clients.get(clientId);
+        if (client == null) {
+            client = new ClientQueue(clientId);
+            clients.put(clientId, client);
+            clientOrder.add(clientId);
+        }
+        client.jobs.add(new Job(taskId, client, priority, lengthClass(durationSeconds), sequence++, task));
+        queued++;
+        dispatch();
+        return true;
+    }
+
+    /**
+     * 从队列中移除排队的任务
+     * @return 任务还在排队并已移除时返回true，已开始运行或不存在时返回false
+     */
+    public synchronized boolean cancel(String taskId) {
+        for (ClientQueue client : clients.values()) {
+            if (client.jobs.removeIf(job -> job.taskId.equals(taskId))) {
+                queued--;
+                removeIfIdle(client);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 排队中的任务数
+     */
+    public synchronized int getQueuedCount() {
+        return queued;
+    }
+
+    /**
+     * 运行中的任务数
+     */
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    private int lengthClass(long durationSeconds) {
+        if (durationSeconds < 0) {
+            return LENGTH_UNKNOWN;
+        }
+        return durationSeconds <= shortVideoSeconds ? LENGTH_SHORT : LENGTH_LONG;
+    }
+
+    /**
+     * 任务当前的等级，越小越先调度：优先级和时长分级决定初始等级，每排队agingSeconds提升一级
+     */
+    private int level(Job job, long now) {
+        int level = job.priority * LENGTH_CLASSES + job.lengthClass;
+        if (agingSeconds > 0) {
+            long steps = (now - job.queuedAt) / TimeUnit.SECONDS.toNanos(agingSeconds);
+            level = (int) Math.max(0, level - steps);
+        }
+        return level;
+    }
+
+    /**
+     * 客户端排队任务中等级最高的，同级时取最早提交的
+     */
+    private Job next(ClientQueue client, long now) {
+        Job best = null;
+        int bestLevel = Integer.MAX_VALUE;
+        for (Job job : client.jobs) {
+            int level = level(job, now);
+            if (level < bestLevel || (level == bestLevel && job.sequence < best.sequence)) {
+                best = job;
+                bestLevel = level;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 有空闲线程时选出下一个任务：所有可调度客户端中最优任务等级最高的，等级相同时从上次之后的客户端开始轮流
+     * 等级随排队时间变化，每次调度时重新计算；排队总数有上限，逐个比较的开销很小
+     */
+    private void dispatch() {
+        while (!stopped && running < maxRunning && queued > 0) {
+            long now = System.nanoTime();
+            ClientQueue selected = null;
+            Job job = null;
+            int selectedLevel = Integer.MAX_VALUE;
+            int selectedIndex = -1;
+            int size = clientOrder.size();
+            for (int i = 0; i < size; i++) {
+                int index = (cursor + i) % size;
+                ClientQueue client = clients.get(clientOrder.get(index));
+                if (client.running >= maxRunningPerClient) {
+                    continue;
+                }
+                Job head = next(client, now);
+                if (head == null) {
+                    continue;
+                }
+                int level = level(head, now);
+                if (level < selectedLevel) {
+                    selected = client;
+                    job = head;
+                    selectedLevel = level;
+                    selectedIndex = index;
+                }
+            }
+            if (selected == null) {
+                // 排队的任务都属于已达上限的客户端
+                return;
+            }
+            selected.jobs.remove(job);
+            Job started = job;
+            try {
+                taskExecutor.execute(() -> run(started));
+            } catch (TaskRejectedException e) {
+                selected.jobs.add(job);
+                logger.warn("下载线程池拒绝任务，等待运行中的任务结束后重试");
+                return;
+            }
+            queued--;
+            running++;
+            selected.running++;
+            cursor = selectedIndex + 1;
+            downloadMetrics.recordQueueWait(job.priority == PRIORITY_BATCH ? "batch" : "interactive",
+                    System.nanoTime() - job.queuedAt);
+        }
+    }
+
+    private void run(Job job) {
+        try {
+            job.task.run();
+        } finally {
+            finished(job.client);
+        }
+    }
+
+    private synchronized void finished(ClientQueue client) {
+        running--;
+        client.running--;
+        removeIfIdle(client);
+        dispatch();
+    }
+
+    private void removeIfIdle(ClientQueue client) {
+        if (client.running == 0 && client.jobs.isEmpty()) {
+            clients.remove(client.clientId);
+            int index = clientOrder.indexOf(client.clientId);
+            clientOrder.remove(index);
+            if (cursor > index) {
+                cursor--;
+            }
+        }
+    }
+
+    /**
+     * 一个客户端的排队任务和运行中的任务数
+     */
+    private static class ClientQueue {
+        private final String clientId;
+        // 按提交顺序排列，调度时按当前等级挑选
+        private final List<Job> jobs = new ArrayList<>();
+        private int running;
+
+        ClientQueue(String clientId) {
+            this.clientId = clientId;
+        }
+    }
+
+    /**
+     * 排队的下载任务
+     */
+    private static class Job {
+        private final String taskId;
+        private final ClientQueue client;
+        private final int priority;
+        private final int lengthClass;
+        private final long sequence;
+        private final Runnable task;
+        private final long queuedAt = System.nanoTime();
+
+        Job(String taskId, ClientQueue client, int priority, int lengthClass, long sequence, Runnable task) {
+            this.taskId = taskId;
+            this.client = client;
+            this.priority = priority;
+            this.lengthClass = lengthClass;
+            this.sequence = sequence;
+            this.task = task;
+        }
+    }
+}
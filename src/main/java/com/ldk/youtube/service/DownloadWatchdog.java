@@ -0,0 +1,240 @@
+package com.ldk.youtube.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * 下载进程看门狗，代替固定的10分钟超时
+ * <ul>
+ *     <li>停滞检测：已下载字节数和阶段在一段时间内都没有变化时结束进程；合并等后处理阶段没有进度输出，使用单独的更长时限</li>
+ *     <li>总时限：基础时长加上按最低速率下载预计大小所需的时间，大文件不会因固定超时而失败</li>
+ * </ul>
+ * 结束进程前先在任务状态上记录原因，下载线程据此给出失败信息。
+ * 边下边传没有任务状态，按已转发的字节数判断进展，结束进程前通过回调告知原因。
+ */
+@Component
+public class DownloadWatchdog {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadWatchdog.class);
+
+    // 下载阶段多久没有新数据视为停滞（秒），也用于进程启动后到首次输出进度之前
+    @Value("${youtube.watchdog.stall-seconds:180}")
+    private long stallSeconds;
+
+    // 合并等后处理阶段多久没有阶段变化视为停滞（秒）
+    @Value("${youtube.watchdog.postprocess-stall-seconds:1800}")
+    private long postprocessStallSeconds;
+
+    // 总时限的基础时长（分钟）
+    @Value("${youtube.watchdog.base-timeout-minutes:10}")
+    private long baseTimeoutMinutes;
+
+    // 计算总时限时假设的最低下载速率（字节/秒），总时限 = 基础时长 + 预计大小 / 最低速率
+    @Value("${youtube.watchdog.min-bytes-per-second:102400}")
+    private long minBytesPerSecond;
+
+    // 检查间隔（秒）
+    @Value("${youtube.watchdog.check-interval-seconds:5}")
+    private long checkIntervalSeconds;
+
+    private final Map<String, Watch> watches = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "download-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::check, checkIntervalSeconds, checkIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 开始监视下载进程
+     */
+    public void watch(YoutubeDownloadService.DownloadStatus status, Process process) {
+        watches.put(status.getTaskId(), new TaskWatch(status, process));
+    }
+
+    /**
+     * 开始监视边下边传进程，没有阶段和预计大小，总时限按已转发的字节数计算
+     * @param streamId 边下边传ID
+     * @param bytes 已转发的字节数
+     * @param onAbort 结束进程前调用，参数为ABORT_STALLED或ABORT_TIMEOUT，同一进程最多调用一次
+     */
+    public void watchStream(String streamId, Process process, LongSupplier bytes, Consumer<String> onAbort) {
+        watches.put(streamId, new StreamWatch(streamId, process, bytes, onAbort));
+    }
+
+    /**
+     * 停止监视
+     */
+    public void unwatch(String taskId) {
+        watches.remove(taskId);
+    }
+
+    private void check() {
+        long now = System.currentTimeMillis();
+        for (Watch watch : watches.values()) {
+            try {
+                watch.check(now);
+            } catch (RuntimeException e) {
+                logger.warn("检查下载任务 [{}] 失败: {}", watch.id, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 单个进程的监视状态，只在看门狗线程中访问
+     */
+    private abstract class Watch {
+        final String id;
+        final Process process;
+        private final long startedAt = System.currentTimeMillis();
+        private long lastActivityAt = startedAt;
+        private long lastBytes = -1;
+        private String lastPhase;
+        // 出现过的最大文件大小，用于计算总时限
+        private long expectedBytes = -1;
+
+        Watch(String id, Process process) {
+            this.id = id;
+            this.process = process;
+        }
+
+        abstract long bytes();
+
+        abstract String phase();
+
+        abstract long totalBytes();
+
+        /**
+         * 记录结束原因
+         * @return 首次记录时返回true，此时结束进程
+         */
+        abstract boolean abort(String reason, String detail);
+
+        void check(long now) {
+            long bytes = bytes();
+            String phase = phase();
+            if (bytes != lastBytes || (phase != null && !phase.equals(lastPhase))) {
+                lastBytes = bytes;
+                lastPhase = phase;
+                lastActivityAt = now;
+            }
+            expectedBytes = Math.max(expectedBytes, totalBytes());
+
+            boolean postprocessing = phase != null && !YoutubeDownloadService.DownloadStatus.PHASE_DOWNLOAD.equals(phase);
+            long stallLimitMs = TimeUnit.SECONDS.toMillis(postprocessing ? postprocessStallSeconds : stallSeconds);
+            if (now - lastActivityAt > stallLimitMs) {
+                kill(YoutubeDownloadService.DownloadStatus.ABORT_STALLED,
+                        String.format("%d 秒没有进展", (now - lastActivityAt) / 1000));
+                return;
+            }
+
+            long deadlineMs = TimeUnit.MINUTES.toMillis(baseTimeoutMinutes);
+            if (expectedBytes > 0 && minBytesPerSecond > 0) {
+                deadlineMs += expectedBytes * 1000 / minBytesPerSecond;
+            }
+            if (now - startedAt > deadlineMs) {
+                kill(YoutubeDownloadService.DownloadStatus.ABORT_TIMEOUT,
+                        String.format("超过总时限 %d 分钟", TimeUnit.MILLISECONDS.toMinutes(deadlineMs)));
+            }
+        }
+
+        private void kill(String reason, String detail) {
+            watches.remove(id);
+            if (abort(reason, detail)) {
+                logger.warn("下载任务 [{}] {}，结束下载进程", id, detail);
+                ProcessSupport.destroyTree(process);
+            }
+        }
+    }
+
+    private class TaskWatch extends Watch {
+        private final YoutubeDownloadService.DownloadStatus status;
+
+        TaskWatch(YoutubeDownloadService.DownloadStatus status, Process process) {
+            super(status.getTaskId(), process);
+            this.status = status;
+        }
+
+        @Override
+        long bytes() {
+            return status.getDownloadedBytes();
+        }
+
+        @Override
+        String phase() {
+            return status.getPhase();
+        }
+
+        @Override
+        long totalBytes() {
+            return status.getTotalBytes();
+        }
+
+        @Override
+        boolean abort(String reason, String detail) {
+            if (!status.abort(reason)) {
+                return false;
+            }
+            status.addError("看门狗: " + detail);
+            return true;
+        }
+    }
+
+    /**
+     * 边下边传：数据直接转发，没有阶段和预计大小；已转发的字节数同时作为预计大小，按最低速率持续转发就不会超时
+     */
+    private class StreamWatch extends Watch {
+        private final LongSupplier bytes;
+        private final Consumer<String> onAbort;
+
+        StreamWatch(String streamId, Process process, LongSupplier bytes, Consumer<String> onAbort) {
+            super(streamId, process);
+            this.bytes = bytes;
+            this.onAbort = onAbort;
+        }
+
+        @Override
+        long bytes() {
+            return bytes.getAsLong();
+        }
+
+        @Override
+        String phase() {
+            return null;
+        }
+
+        @Override
+        long totalBytes() {
+            return bytes.getAsLong();
+        }
+
+        @Override
+        boolean abort(String reason, String detail) {
+            onAbort.accept(reason);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.ldk.youtube.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 基于共享目录的任务存储
+ * 本节点的任务仍保存在内存中；任务状态快照和节点地址以JSON文件写入所有节点都能访问的目录（如NFS挂载），
+ * 其他节点据此找到任务所属节点的地址，所属节点失联时返回最后的状态快照。
+ * 目录结构：tasks/任务ID.json、nodes/节点标识.json，文件先写临时文件再替换，读取方不会读到写了一半的内容。
+ */
+@Component
+@ConditionalOnProperty(name = "youtube.task-store.type", havingValue = "file")
+public class FileTaskStore extends InMemoryTaskStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileTaskStore.class);
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<Map<String, Object>>() {};
+
+    // 任务ID和节点标识只能包含这些字符，避免用请求中的ID拼出其他路径
+    private static final Pattern SAFE_ID = Pattern.compile("[A-Za-z0-9_-]{1,128}");
+
+    // 节点超过几个心跳周期没有更新即视为失联
+    private static final int HEARTBEAT_MISSES = 3;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    // 共享目录
+    @Value("${youtube.task-store.dir:${youtube.download.dir:${user.home}/Downloads/youtube-downloads}/.task-store}")
+    private String storeDir;
+
+    // 节点心跳间隔（秒），同时刷新本节点进行中任务的快照
+    @Value("${youtube.task-store.heartbeat-seconds:10}")
+    private long heartbeatSeconds;
+
+    // 快照保留时间（分钟），节点失联后遗留的快照超时后清理
+    @Value("${youtube.task-store.snapshot-ttl-minutes:360}")
+    private long snapshotTtlMinutes;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private Path tasksPath;
+    private Path nodesPath;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Path root = Paths.get(storeDir).toAbsolutePath();
+        tasksPath = Files.createDirectories(root.resolve("tasks"));
+        nodesPath = Files.createDirectories(root.resolve("nodes"));
+        if (clusterNode.getAdvertiseUrl() == null) {
+            logger.warn("未配置youtube.cluster.advertise-url，其他节点无法把本节点的任务请求转过来");
+        }
+        logger.info("共享任务存储目录: {}", root);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "task-store-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::heartbeat, 0, heartbeatSeconds, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::purgeSnapshots, 1, 10, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        // 本节点下线，其他节点不再把请求转过来
+        nodeFile(clusterNode.getNodeId()).delete();
+    }
+
+    @Override
+    public void put(YoutubeDownloadService.DownloadStatus status) {
+        super.put(status);
+        writeSnapshot(status);
+    }
+
+    @Override
+    public YoutubeDownloadService.DownloadStatus remove(String taskId) {
+        YoutubeDownloadService.DownloadStatus status = super.remove(taskId);
+        if (status != null) {
+            snapshotFile(taskId).delete();
+        }
+        return status;
+    }
+
+    @Override
+    public void update(YoutubeDownloadService.DownloadStatus status) {
+        if (get(status.getTaskId()) != null) {
+            writeSnapshot(status);
+        }
+    }
+
+    @Override
+    public Map<String, Object> findSnapshot(String taskId) {
+        if (!SAFE_ID.matcher(taskId).matches()) {
+            return null;
+        }
+        return readJson(snapshotFile(taskId));
+    }
+
+    @Override
+    public String findNodeUrl(String nodeId) {
+        if (!SAFE_ID.matcher(nodeId).matches()) {
+            return null;
+        }
+        Map<String, Object> node = readJson(nodeFile(nodeId));
+        if (node == null || !(node.get("url") instanceof String)) {
+            return null;
+        }
+        Object heartbeatAt = node.get("heartbeatAt");
+        if (!(heartbeatAt instanceof Number) || System.currentTimeMillis() - ((Number) heartbeatAt).longValue()
+                > TimeUnit.SECONDS.toMillis(heartbeatSeconds * HEARTBEAT_MISSES)) {
+            return null;
+        }
+        return (String) node.get("url");
+    }
+
+    /**
+     * 登记本节点地址，刷新进行中任务的快照（进度）
+     */
+    private void heartbeat() {
+        try {
+            String url = clusterNode.getAdvertiseUrl();
+            if (url != null) {
+                Map<String, Object> node = new LinkedHashMap<>();
+                node.put("nodeId", clusterNode.getNodeId());
+                node.put("url", url);
+                node.put("heartbeatAt", System.currentTimeMillis());
+                writeJson(nodeFile(clusterNode.getNodeId()), node);
+            }
+            for (YoutubeDownloadService.DownloadStatus status : getAll()) {
+                if (!status.isFinished()) {
+                    writeSnapshot(status);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("刷新共享任务存储失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 清理超时的快照，正常情况下任务被回收时所属节点会删除快照，这里处理节点失联后遗留的快照
+     */
+    private void purgeSnapshots() {
+        long expiredBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(snapshotTtlMinutes);
+        int purged = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tasksPath, "*.json")) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() < expiredBefore && file.toFile().delete()) {
+                    purged++;
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("清理任务快照失败: {}", e.getMessage());
+        }
+        if (purged > 0) {
+            logger.info("清理过期任务快照: {} 个", purged);
+        }
+    }
+
+    private void writeSnapshot(YoutubeDownloadService.DownloadStatus status) {
+        if (!SAFE_ID.matcher(status.getTaskId()).matches()) {
+            return;
+        }
+        Map<String, Object> snapshot = new LinkedHashMap<>(status.toStatusMap());
+        snapshot.put("node", clusterNode.getNodeId());
+        snapshot.put("updatedAt", System.currentTimeMillis());
+        writeJson(snapshotFile(status.getTaskId()), snapshot);
+    }
+
+    private void writeJson(File file, Map<String, Object> value) {
+        try {
+            Path temp = Files.createTempFile(file.getParentFile().toPath(), ".snapshot", ".tmp");
+            objectMapper.writeValue(temp.toFile(), value);
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("写入共享任务存储失败: {} ({})", file, e.getMessage());
+        }
+    }
+
+    private Map<String, Object> readJson(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(file, MAP_TYPE);
+        } catch (IOException e) {
+            logger.warn("读取共享任务存储失败: {} ({})", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private File snapshotFile(String taskId) {
+        return tasksPath.resolve(taskId + ".json").toFile();
+    }
+
+    private File nodeFile(String nodeId) {
+        return nodesPath.resolve(nodeId + ".json").toFile();
+    }
+}
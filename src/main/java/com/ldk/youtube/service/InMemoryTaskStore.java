@@ -0,0 +1,58 @@
+package com.ldk.youtube.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 内存任务存储，只保存本节点的任务，单机部署时使用
+ */
+@Component
+@ConditionalOnProperty(name = "youtube.task-store.type", havingValue = "memory", matchIfMissing = true)
+public class InMemoryTaskStore implements TaskStore {
+
+    private final Map<String, YoutubeDownloadService.DownloadStatus> tasks = new ConcurrentHashMap<>();
+
+    @Override
+    public void put(YoutubeDownloadService.DownloadStatus status) {
+        tasks.put(status.getTaskId(), status);
+    }
+
+    @Override
+    public YoutubeDownloadService.DownloadStatus get(String taskId) {
+        return tasks.get(taskId);
+    }
+
+    @Override
+    public YoutubeDownloadService.DownloadStatus remove(String taskId) {
+        return tasks.remove(taskId);
+    }
+
+    @Override
+    public Collection<YoutubeDownloadService.DownloadStatus> getAll() {
+        return tasks.values();
+    }
+
+    @Override
+    public int size() {
+        return tasks.size();
+    }
+
+    @Override
+    public void update(YoutubeDownloadService.DownloadStatus status) {
+        // 状态就在内存中的对象上，不需要另外保存
+    }
+
+    @Override
+    public Map<String, Object> findSnapshot(String taskId) {
+        return null;
+    }
+
+    @Override
+    public String findNodeUrl(String nodeId) {
+        return null;
+    }
+}
@@ -0,0 +1,224 @@
+package com.ldk.youtube.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 后处理线程池：合并音视频、音频转码等ffmpeg工作
+ * 下载受网络限制，合并和转码受CPU限制，放在各自的线程池里互不占用：yt-dlp下载完就释放下载线程，
+ * 后处理按CPU核数并行，超出的排队等待。
+ */
+@Component
+public class PostProcessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(PostProcessor.class);
+
+    public static final String AUDIO_M4A = "m4a";
+    public static final String AUDIO_MP3 = "mp3";
+    public static final String AUDIO_OPUS = "opus";
+
+    @Autowired
+    private ToolchainRegistry toolchainRegistry;
+
+    @Autowired
+    private ProcessOutputPump processOutputPump;
+
+    @Autowired
+    private DownloadMetrics downloadMetrics;
+
+    // 同时运行的ffmpeg进程数，0表示按CPU核数
+    @Value("${youtube.postprocess.threads:0}")
+    private int threads;
+
+    // 单次合并或转码的最长时间（分钟）
+    @Value("${youtube.postprocess.timeout-minutes:60}")
+    private long timeoutMinutes;
+
+    // 转码为m4a（AAC）和opus时的码率
+    @Value("${youtube.postprocess.audio-bitrate:192k}")
+    private String audioBitrate;
+
+    private final Map<String, Process> runningProcesses = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() {
+        int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "postprocess-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        downloadMetrics.bindExecutor(executor, "postprocessExecutor");
+        logger.info("后处理线程池: {} 个线程", size);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+        for (Process process : runningProcesses.values()) {
+            ProcessSupport.destroyTree(process);
+        }
+    }
+
+    /**
+     * 是否为支持的音频格式
+     */
+    public static boolean isAudioFormat(String format) {
+        return AUDIO_M4A.equals(format) || AUDIO_MP3.equals(format) || AUDIO_OPUS.equals(format);
+    }
+
+    /**
+     * 在后处理线程池中把视频文件和音频文件合并为mp4，只复制流不重新编码
+     * @param status 下载任务状态，后处理输出记入任务日志
+     * @param video 视频文件，只取其中的视频流
+     * @param audio 音频文件
+     * @param output 合并结果
+     * @return 完成时返回合并结果
+     */
+    public CompletableFuture<File> merge(YoutubeDownloadService.DownloadStatus status, File video, File audio,
+                                         File output) {
+        List<String> args = Arrays.asList("-i", video.getAbsolutePath(), "-i", audio.getAbsolutePath(),
+                "-map", "0:v:0", "-map", "1:a:0", "-c", "copy", "-movflags", "+faststart");
+        return submit(status, YoutubeDownloadService.DownloadStatus.PHASE_MERGE, DownloadMetrics.PHASE_MERGE,
+                args, output);
+    }
+
+    /**
+     * 在后处理线程池中把音频提取为指定格式，源文件已是目标编码时只复制流
+     * @param status 下载任务状态
+     * @param input 下载的音频（或音视频）文件
+     * @param format 目标格式，{@link #AUDIO_M4A}、{@link #AUDIO_MP3} 或 {@link #AUDIO_OPUS}
+     * @param output 转码结果
+     * @return 完成时返回转码结果
+     */
+    public CompletableFuture<File> extractAudio(YoutubeDownloadService.DownloadStatus status, File input,
+                                                String format, File output) {
+        List<String> args = new ArrayList<>(Arrays.asList("-i", input.getAbsolutePath(), "-vn"));
+        String extension = extensionOf(input);
+        switch (format) {
+            case AUDIO_MP3:
+                args.addAll(Arrays.asList("-c:a", "libmp3lame", "-q:a", "2"));
+                break;
+            case AUDIO_OPUS:
+                // YouTube的webm音频本身就是opus
+                if ("webm".equals(extension) || "opus".equals(extension)) {
+                    args.addAll(Arrays.asList("-c:a", "copy"));
+                } else {
+                    args.addAll(Arrays.asList("-c:a", "libopus", "-b:a", audioBitrate));
+                }
+                break;
+            default:
+                if ("m4a".equals(extension)) {
+                    args.addAll(Arrays.asList("-c:a", "copy"));
+                } else {
+                    args.addAll(Arrays.asList("-c:a", "aac", "-b:a", audioBitrate));
+                }
+                args.addAll(Arrays.asList("-movflags", "+faststart"));
+                break;
+        }
+        return submit(status, YoutubeDownloadService.DownloadStatus.PHASE_POSTPROCESS, DownloadMetrics.PHASE_ENCODE,
+                args, output);
+    }
+
+    /**
+     * 结束任务正在运行的ffmpeg进程，排队中的任务开始时检查取消状态后直接结束
+     */
+    public void cancel(String taskId) {
+        Process process = runningProcesses.get(taskId);
+        if (process != null) {
+            ProcessSupport.destroyTree(process);
+        }
+    }
+
+    /**
+     * 排队等待后处理的任务数
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    private CompletableFuture<File> submit(YoutubeDownloadService.DownloadStatus status, String phase,
+                                           String metricPhase, List<String> args, File output) {
+        CompletableFuture<File> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                status.setPhase(phase);
+                long startedAt = System.nanoTime();
+                run(status, args, output);
+                downloadMetrics.recordPhase(metricPhase, System.nanoTime() - startedAt);
+                result.complete(output);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private void run(YoutubeDownloadService.DownloadStatus status, List<String> args, File output)
+            throws IOException, InterruptedException {
+        String taskId = status.getTaskId();
+        if (status.getAbortReason() != null) {
+            throw new IllegalStateException("后处理开始前任务已结束");
+        }
+        if (!toolchainRegistry.isAvailable(ToolchainRegistry.FFMPEG)) {
+            throw new IllegalStateException("ffmpeg命令不可用，无法合并或转码");
+        }
+
+        List<String> command = new ArrayList<>(Arrays.asList(
+                toolchainRegistry.getCommand(ToolchainRegistry.FFMPEG), "-nostdin", "-hide_banner", "-loglevel", "error"));
+        command.addAll(args);
+        command.addAll(Arrays.asList("-y", output.getAbsolutePath()));
+        logger.debug("任务 [{}] 执行后处理命令: {}", taskId, String.join(" ", command));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        runningProcesses.put(taskId, process);
+        try {
+            // 进程启动期间收到取消请求时，取消方可能还没看到进程，这里补上结束
+            if (status.getAbortReason() != null) {
+                ProcessSupport.destroyTree(process);
+            }
+            processOutputPump.pump(process, process.getInputStream(),
+                    line -> status.addError("ffmpeg: " + line), taskId + " ffmpeg");
+            if (!process.waitFor(timeoutMinutes, TimeUnit.MINUTES)) {
+                ProcessSupport.destroyTree(process);
+                throw new IOException("后处理超过 " + timeoutMinutes + " 分钟未完成");
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException("ffmpeg异常退出，退出码: " + process.exitValue());
+            }
+            if (!output.isFile()) {
+                throw new IOException("ffmpeg没有生成输出文件");
+            }
+        } finally {
+            runningProcesses.remove(taskId);
+        }
+    }
+
+    private static String extensionOf(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot + 1).toLowerCase() : "";
+    }
+}
@@ -0,0 +1,363 @@
+package com.ldk.youtube.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 子进程输出读取器
+ * 所有下载进程的标准输出和错误流都交给这里按行读取，不再为每个流单独创建线程。支持三种模式：
+ * <ul>
+ *     <li>multiplexed（默认）：固定数量的读取线程轮询所有流，线程数与下载数无关</li>
+ *     <li>pooled：共享的命名线程池，线程空闲后复用，每个流读取时占用一个线程；
+ *     线程数达到上限后，新的流交给轮询线程读取</li>
+ *     <li>virtual：每个流一个虚拟线程（Java 21+），不支持时退回multiplexed</li>
+ * </ul>
+ */
+@Component
+public class ProcessOutputPump {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessOutputPump.class);
+
+    public static final String MODE_POOLED = "pooled";
+    public static final String MODE_MULTIPLEXED = "multiplexed";
+    public static final String MODE_VIRTUAL = "virtual";
+
+    // multiplexed模式下单次读取的缓冲区大小
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    // 单行最大长度，超过时截断，避免异常输出撑爆内存
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+
+    // pooled模式下空闲线程的保留时间（秒）
+    private static final long POOL_KEEP_ALIVE_SECONDS = 60;
+
+    // 进程退出后，管道中已没有可读数据时继续等待的时间（毫秒），之后关闭流；
+    // 子进程派生的进程可能仍持有管道，不能等到读到流结束
+    private static final long EXIT_DRAIN_MS = 200;
+
+    @Value("${youtube.process-io.mode:multiplexed}")
+    private String mode;
+
+    // multiplexed模式下的读取线程数
+    @Value("${youtube.process-io.pump-threads:2}")
+    private int pumpThreads;
+
+    // pooled模式下的最大线程数
+    @Value("${youtube.process-io.max-threads:64}")
+    private int maxThreads;
+
+    // multiplexed模式下所有流都没有数据时的等待时间（毫秒）
+    @Value("${youtube.process-io.poll-interval-ms:20}")
+    private long pollIntervalMs;
+
+    // pooled / virtual模式使用的线程池
+    private ExecutorService executor;
+
+    // 轮询读取线程：multiplexed模式启动时创建，pooled模式在线程数达到上限时创建
+    private final List<PumpThread> pumps = new ArrayList<>();
+    private final AtomicInteger nextPump = new AtomicInteger();
+
+    private volatile boolean running = true;
+
+    @PostConstruct
+    public void start() {
+        if (MODE_POOLED.equalsIgnoreCase(mode)) {
+            // 线程数达到上限时拒绝，由pump()转给轮询线程，不在队列中等待（排队的流没人读，子进程会写满管道卡住）
+            executor = new ThreadPoolExecutor(0, Math.max(1, maxThreads), POOL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), namedDaemonThreadFactory("process-io-"));
+            logger.info("子进程输出读取模式: pooled，最大线程数: {}", Math.max(1, maxThreads));
+            return;
+        }
+
+        if (MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+            executor = newVirtualThreadPerTaskExecutor();
+            if (executor != null) {
+                logger.info("子进程输出读取模式: virtual");
+                return;
+            }
+            logger.warn("当前Java版本不支持虚拟线程，子进程输出读取退回multiplexed模式");
+        } else if (!MODE_MULTIPLEXED.equalsIgnoreCase(mode)) {
+            logger.warn("未知的子进程输出读取模式: {}，使用multiplexed模式", mode);
+        }
+
+        startPumps();
+        logger.info("子进程输出读取模式: multiplexed，读取线程数: {}", pumps.size());
+    }
+
+    /**
+     * 启动轮询读取线程，已启动时不重复创建
+     */
+    private synchronized void startPumps() {
+        if (!pumps.isEmpty()) {
+            return;
+        }
+        int count = Math.max(1, pumpThreads);
+        for (int i = 0; i < count; i++) {
+            PumpThread pump = new PumpThread("process-io-pump-" + i);
+            pumps.add(pump);
+            pump.start();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        for (PumpThread pump : pumps) {
+            pump.interrupt();
+        }
+    }
+
+    /**
+     * 按行读取进程的一个输出流，直到流结束
+     * @param process 产生输出的进程
+     * @param in 进程的标准输出或错误流
+     * @param lineHandler 每读到一行调用一次，在读取线程中执行
+     * @param name 流的名称，用于日志
+     * @return 流读取结束（或出错）时完成
+     */
+    public CompletableFuture<Void> pump(Process process, InputStream in, Consumer<String> lineHandler, String name) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (executor != null) {
+            try {
+                executor.execute(() -> {
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            handleLine(lineHandler, line, name);
+                        }
+                        done.complete(null);
+                    } catch (IOException e) {
+                        done.completeExceptionally(e);
+                    }
+                });
+                return done;
+            } catch (RejectedExecutionException e) {
+                if (!running) {
+                    throw e;
+                }
+                // pooled模式线程数已达上限，交给轮询线程
+                startPumps();
+            }
+        }
+        PumpThread pump = pumps.get(Math.floorMod(nextPump.getAndIncrement(), pumps.size()));
+        pump.register(new PolledStream(process, in, lineHandler, name, done));
+        return done;
+    }
+
+    private static void handleLine(Consumer<String> lineHandler, String line, String name) {
+        try {
+            lineHandler.accept(line);
+        } catch (RuntimeException e) {
+            logger.warn("处理 {} 输出行失败: {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * 创建虚拟线程执行器（Java 21+），通过反射调用，不支持时返回null
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 创建虚拟线程工厂（Java 21+），通过反射调用，不支持时返回null
+     * @param prefix 线程名前缀
+     */
+    public static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory namedDaemonThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger(1);
+        return r -> {
+            Thread thread = new Thread(r, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * multiplexed模式下登记的一个输出流
+     */
+    private static class PolledStream {
+        private final Process process;
+        private final InputStream in;
+        private final Consumer<String> lineHandler;
+        private final String name;
+        private final CompletableFuture<Void> done;
+        // 尚未遇到换行符的不完整行
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        // 发现进程已退出且没有可读数据的时间，0表示尚未发现
+        private long drainingSince;
+
+        PolledStream(Process process, InputStream in, Consumer<String> lineHandler, String name,
+                     CompletableFuture<Void> done) {
+            this.process = process;
+            this.in = in;
+            this.lineHandler = lineHandler;
+            this.name = name;
+            this.done = done;
+        }
+
+        /**
+         * 读取当前可读的数据，不阻塞
+         * 只在有可读数据时读取：进程退出后管道可能仍被它派生的进程持有，此时read会一直阻塞，
+         * 卡住同一读取线程上的所有流。进程退出且持续EXIT_DRAIN_MS没有可读数据后关闭流。
+         * @return 读到数据返回true
+         */
+        boolean poll(byte[] buffer) throws IOException {
+            int available = in.available();
+            if (available <= 0) {
+                if (process.isAlive()) {
+                    return false;
+                }
+                long now = System.currentTimeMillis();
+                if (drainingSince == 0) {
+                    drainingSince = now;
+                } else if (now - drainingSince >= EXIT_DRAIN_MS) {
+                    finish();
+                }
+                return false;
+            }
+            drainingSince = 0;
+            int read = in.read(buffer, 0, Math.min(available, buffer.length));
+            if (read < 0) {
+                finish();
+                return false;
+            }
+            accept(buffer, read);
+            return true;
+        }
+
+        private void accept(byte[] buffer, int length) {
+            for (int i = 0; i < length; i++) {
+                byte b = buffer[i];
+                // yt-dlp的进度行可能用\r分隔
+                if (b == '\n' || b == '\r') {
+                    flushLine();
+                } else if (pending.size() < MAX_LINE_BYTES) {
+                    pending.write(b);
+                }
+            }
+        }
+
+        private void flushLine() {
+            if (pending.size() == 0) {
+                return;
+            }
+            // 按字节缓存到换行再解码，多字节字符不会被拆开
+            String line = new String(pending.toByteArray(), StandardCharsets.UTF_8);
+            pending.reset();
+            handleLine(lineHandler, line, name);
+        }
+
+        void finish() {
+            flushLine();
+            closeQuietly();
+            done.complete(null);
+        }
+
+        void fail(IOException e) {
+            closeQuietly();
+            done.completeExceptionally(e);
+        }
+
+        private void closeQuietly() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+
+    /**
+     * multiplexed模式的读取线程，轮询分配给它的所有流
+     */
+    private class PumpThread extends Thread {
+
+        private final ConcurrentLinkedQueue<PolledStream> incoming = new ConcurrentLinkedQueue<>();
+        private final List<PolledStream> streams = new ArrayList<>();
+        private final byte[] buffer = new byte[READ_BUFFER_SIZE];
+
+        PumpThread(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        void register(PolledStream stream) {
+            incoming.add(stream);
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                PolledStream added;
+                while ((added = incoming.poll()) != null) {
+                    streams.add(added);
+                }
+
+                boolean progressed = false;
+                Iterator<PolledStream> iterator = streams.iterator();
+                while (iterator.hasNext()) {
+                    PolledStream stream = iterator.next();
+                    try {
+                        progressed |= stream.poll(buffer);
+                    } catch (IOException e) {
+                        stream.fail(e);
+                    }
+                    if (stream.done.isDone()) {
+                        iterator.remove();
+                    }
+                }
+
+                if (!progressed) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(pollIntervalMs));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.ldk.youtube.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 子进程辅助方法
+ * 项目按Java 8编译，进程ID和进程树相关的ProcessHandle接口（Java 9+）通过反射调用，
+ * 运行在Java 8上时这些操作退化为空操作
+ */
+public final class ProcessSupport {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessSupport.class);
+
+    private static final Method PROCESS_PID;
+    private static final Method PROCESS_TO_HANDLE;
+    private static final Method HANDLE_OF;
+    private static final Method HANDLE_DESCENDANTS;
+    private static final Method HANDLE_DESTROY_FORCIBLY;
+    private static final Method HANDLE_IS_ALIVE;
+    private static final Method HANDLE_INFO;
+    private static final Method INFO_COMMAND_LINE;
+    private static final Method HANDLE_PID;
+
+    // 发送暂停/恢复信号的常驻shell，使用内置的kill命令，不必每次启动kill进程；未启动或已退出时为null
+    private static Process signalShell;
+    private static OutputStream signalShellIn;
+    private static BufferedReader signalShellOut;
+
+    static {
+        Method pid = null;
+        Method toHandle = null;
+        Method of = null;
+        Method descendants = null;
+        Method destroyForcibly = null;
+        Method isAlive = null;
+        Method info = null;
+        Method commandLine = null;
+        Method handlePid = null;
+        try {
+            Class<?> handleClass = Class.forName("java.lang.ProcessHandle");
+            pid = Process.class.getMethod("pid");
+            toHandle = Process.class.getMethod("toHandle");
+            of = handleClass.getMethod("of", long.class);
+            descendants = handleClass.getMethod("descendants");
+            destroyForcibly = handleClass.getMethod("destroyForcibly");
+            isAlive = handleClass.getMethod("isAlive");
+            info = handleClass.getMethod("info");
+            commandLine = Class.forName("java.lang.ProcessHandle$Info").getMethod("commandLine");
+            handlePid = handleClass.getMethod("pid");
+        } catch (ReflectiveOperationException e) {
+            logger.info("当前Java版本不支持ProcessHandle，进程ID和进程树操作不可用");
+        }
+        PROCESS_PID = pid;
+        PROCESS_TO_HANDLE = toHandle;
+        HANDLE_OF = of;
+        HANDLE_DESCENDANTS = descendants;
+        HANDLE_DESTROY_FORCIBLY = destroyForcibly;
+        HANDLE_IS_ALIVE = isAlive;
+        HANDLE_INFO = info;
+        INFO_COMMAND_LINE = commandLine;
+        HANDLE_PID = handlePid;
+    }
+
+    private ProcessSupport() {
+    }
+
+    /**
+     * 获取进程ID
+     * Java 8上读取UNIXProcess的pid字段
+     * @return 进程ID，不支持时返回-1
+     */
+    public static long pid(Process process) {
+        try {
+            if (PROCESS_PID != null) {
+                return (Long) PROCESS_PID.invoke(process);
+            }
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getInt(process);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 暂停进程及其所有子进程（SIGSTOP），仅支持类Unix系统
+     * @return 信号发送成功时返回true
+     */
+    public static boolean suspend(Process process) {
+        return signalTree(process, "-STOP");
+    }
+
+    /**
+     * 恢复被暂停的进程及其所有子进程（SIGCONT）
+     * @return 信号发送成功时返回true
+     */
+    public static boolean resume(Process process) {
+        return signalTree(process, "-CONT");
+    }
+
+    /**
+     * 用一条kill命令向整个进程树发送信号，与destroyTree一样通过ProcessHandle查找子进程；
+     * Java没有发送STOP/CONT信号的接口，由常驻shell执行内置的kill，shell不可用时才启动kill进程
+     */
+    private static boolean signalTree(Process process, String signal) {
+        long pid = pid(process);
+        if (pid <= 0 || !process.isAlive()) {
+            return false;
+        }
+        StringBuilder command = new StringBuilder("kill ").append(signal).append(' ').append(pid);
+        for (long child : descendantPids(process)) {
+            command.append(' ').append(child);
+        }
+        Boolean sent = sendToSignalShell(command.toString());
+        if (sent != null) {
+            return sent;
+        }
+        try {
+            Process kill = new ProcessBuilder("sh", "-c", command.toString()).start();
+            kill.getInputStream().close();
+            kill.getErrorStream().close();
+            return kill.waitFor(5, TimeUnit.SECONDS) && kill.exitValue() == 0;
+        } catch (IOException e) {
+            logger.warn("向进程 {} 发送 {} 失败: {}", pid, signal, e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static List<Long> descendantPids(Process process) {
+        List<Long> pids = new ArrayList<>();
+        if (PROCESS_TO_HANDLE == null) {
+            return pids;
+        }
+        try {
+            Object[] descendants = ((Stream<?>) HANDLE_DESCENDANTS.invoke(PROCESS_TO_HANDLE.invoke(process))).toArray();
+            for (Object child : descendants) {
+                pids.add((Long) HANDLE_PID.invoke(child));
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("查找子进程失败: {}", e.getMessage());
+        }
+        return pids;
+    }
+
+    /**
+     * 由常驻shell执行命令，shell退出后下次调用时重新启动
+     * @return 命令退出码是否为0，shell不可用时返回null
+     */
+    private static synchronized Boolean sendToSignalShell(String command) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                if (signalShell == null || !signalShell.isAlive()) {
+                    signalShell = new ProcessBuilder("sh").redirectErrorStream(true).start();
+                    signalShellIn = signalShell.getOutputStream();
+                    signalShellOut = new BufferedReader(
+                            new InputStreamReader(signalShell.getInputStream(), StandardCharsets.UTF_8));
+                }
+                // 进程可能刚好退出，kill的错误输出丢弃，只回传退出码
+                signalShellIn.write((command + " 2>/dev/null; echo $?\n").getBytes(StandardCharsets.UTF_8));
+                signalShellIn.flush();
+                String exitCode = signalShellOut.readLine();
+                if (exitCode != null) {
+                    return "0".equals(exitCode.trim());
+                }
+            } catch (IOException e) {
+                logger.debug("信号shell不可用: {}", e.getMessage());
+            }
+            if (signalShell != null) {
+                signalShell.destroyForcibly();
+                signalShell = null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 强制结束进程及其所有子进程（如yt-dlp启动的ffmpeg）
+     */
+    public static void destroyTree(Process process) {
+        if (PROCESS_TO_HANDLE != null) {
+            try {
+                destroyDescendants(PROCESS_TO_HANDLE.invoke(process));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                logger.warn("结束子进程失败: {}", e.getMessage());
+            }
+        }
+        process.destroyForcibly();
+    }
+
+    /**
+     * 按进程ID强制结束进程及其所有子进程，用于清理上次运行遗留的进程
+     * 进程ID可能已被其他进程复用，只有命令行包含expectedCommand时才结束
+     * @param pid 进程ID
+     * @param expectedCommand 命令行中应包含的内容，如yt-dlp
+     * @return 进程存在并已发出结束信号时返回true
+     */
+    public static boolean destroyTree(long pid, String expectedCommand) {
+        if (HANDLE_OF == null || pid <= 0) {
+            return false;
+        }
+        try {
+            Optional<?> handle = (Optional<?>) HANDLE_OF.invoke(null, pid);
+            if (!handle.isPresent() || !(Boolean) HANDLE_IS_ALIVE.invoke(handle.get())) {
+                return false;
+            }
+            Optional<?> commandLine = (Optional<?>) INFO_COMMAND_LINE.invoke(HANDLE_INFO.invoke(handle.get()));
+            if (!commandLine.isPresent() || !String.valueOf(commandLine.get()).contains(expectedCommand)) {
+                return false;
+            }
+            destroyDescendants(handle.get());
+            HANDLE_DESTROY_FORCIBLY.invoke(handle.get());
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("结束进程 {} 失败: {}", pid, e.getMessage());
+            return false;
+        }
+    }
+
+    private static void destroyDescendants(Object handle) throws ReflectiveOperationException {
+        Object[] descendants = ((Stream<?>) HANDLE_DESCENDANTS.invoke(handle)).toArray();
+        for (Object child : descendants) {
+            HANDLE_DESTROY_FORCIBLY.invoke(child);
+        }
+    }
+}
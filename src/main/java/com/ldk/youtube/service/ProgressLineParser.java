@@ -0,0 +1,180 @@
+package com.ldk.youtube.service;
+
+/**
+ * yt-dlp结构化进度行解析器
+ * 下载时通过 --progress-template 让yt-dlp按固定格式输出进度，每行只扫描一遍，不做字符串切分，
+ * 解析结果保存在字段中，每个下载任务使用一个实例，只在该任务的标准输出读取线程中使用
+ */
+public class ProgressLineParser {
+
+    public static final int NONE = 0;
+    public static final int DOWNLOAD = 1;
+    public static final int POSTPROCESS = 2;
+
+    private static final String DOWNLOAD_PREFIX = "[progress] ";
+    private static final String POSTPROCESS_PREFIX = "[postprocess] ";
+
+    /**
+     * 下载进度模板：状态、已下载字节、总字节、估算总字节、速度（字节/秒）、剩余时间（秒），缺失的值输出为NA
+     */
+    public static final String DOWNLOAD_TEMPLATE = "download:" + DOWNLOAD_PREFIX
+            + "%(progress.status)s %(progress.downloaded_bytes)s %(progress.total_bytes)s "
+            + "%(progress.total_bytes_estimate)s %(progress.speed)s %(progress.eta)s";
+
+    /**
+     * 后处理进度模板：状态、后处理器名称（如Merger、FFmpegExtractAudio）
+     */
+    public static final String POSTPROCESS_TEMPLATE = "postprocess:" + POSTPROCESS_PREFIX
+            + "%(progress.status)s %(progress.postprocessor)s";
+
+    private static final String FINISHED = "finished";
+    private static final String MERGER = "Merger";
+
+    private int pos;
+
+    private long downloadedBytes;
+    // 与上一行相比新下载的字节数，以及上一行的已下载字节数
+    private long downloadedDelta;
+    private long previousDownloadedBytes;
+    private long totalBytes;
+    private long speed;
+    private long eta;
+    private String phase;
+
+    /**
+     * 解析一行标准输出
+     * @return 进度行类型：{@link #DOWNLOAD}、{@link #POSTPROCESS}，不是进度行时返回{@link #NONE}
+     */
+    public int parse(String line) {
+        if (line.startsWith(DOWNLOAD_PREFIX)) {
+            pos = DOWNLOAD_PREFIX.length();
+            boolean finished = tokenEquals(line, FINISHED);
+            skipToken(line);
+            downloadedBytes = nextNumber(line);
+            totalBytes = nextNumber(line);
+            long estimate = nextNumber(line);
+            speed = nextNumber(line);
+            eta = nextNumber(line);
+            if (totalBytes < 0) {
+                // 分片下载（DASH/HLS）时只有估算值
+                totalBytes = estimate;
+            }
+            if (finished) {
+                if (downloadedBytes < 0) {
+                    downloadedBytes = totalBytes;
+                }
+                eta = 0;
+            }
+            if (downloadedBytes < 0) {
+                downloadedDelta = 0;
+            } else {
+                // 已下载字节数变小说明开始下载下一个文件（如视频之后的音频）
+                downloadedDelta = downloadedBytes >= previousDownloadedBytes
+                        ? downloadedBytes - previousDownloadedBytes : downloadedBytes;
+                previousDownloadedBytes = downloadedBytes;
+            }
+            phase = YoutubeDownloadService.DownloadStatus.PHASE_DOWNLOAD;
+            return DOWNLOAD;
+        }
+        if (line.startsWith(POSTPROCESS_PREFIX)) {
+            pos = POSTPROCESS_PREFIX.length();
+            skipToken(line);
+            skipSpaces(line);
+            phase = tokenEquals(line, MERGER)
+                    ? YoutubeDownloadService.DownloadStatus.PHASE_MERGE
+                    : YoutubeDownloadService.DownloadStatus.PHASE_POSTPROCESS;
+            return POSTPROCESS;
+        }
+        return NONE;
+    }
+
+    /**
+     * 已下载字节数，未知时为-1
+     */
+    public long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    /**
+     * 与上一个进度行相比新下载的字节数
+     */
+    public long getDownloadedDelta() {
+        return downloadedDelta;
+    }
+
+    /**
+     * 当前文件的总字节数（或估算值），未知时为-1
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * 下载速度（字节/秒），未知时为-1
+     */
+    public long getSpeed() {
+        return speed;
+    }
+
+    /**
+     * 预计剩余时间（秒），未知时为-1
+     */
+    public long getEta() {
+        return eta;
+    }
+
+    /**
+     * 当前阶段：download、merge、postprocess
+     */
+    public String getPhase() {
+        return phase;
+    }
+
+    private boolean tokenEquals(String line, String token) {
+        int end = pos + token.length();
+        return line.startsWith(token, pos) && (end == line.length() || line.charAt(end) == ' ');
+    }
+
+    private void skipSpaces(String line) {
+        while (pos < line.length() && line.charAt(pos) == ' ') {
+            pos++;
+        }
+    }
+
+    private void skipToken(String line) {
+        while (pos < line.length() && line.charAt(pos) != ' ') {
+            pos++;
+        }
+    }
+
+    /**
+     * 读取下一个数值，小数部分舍去；NA或无法解析时返回-1
+     */
+    private long nextNumber(String line) {
+        skipSpaces(line);
+        int length = line.length();
+        long value = 0;
+        boolean digits = false;
+        while (pos < length) {
+            char c = line.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                digits = true;
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (pos < length && line.charAt(pos) == '.') {
+            pos++;
+            while (pos < length && line.charAt(pos) >= '0' && line.charAt(pos) <= '9') {
+                pos++;
+            }
+        }
+        if (pos < length && line.charAt(pos) != ' ') {
+            skipToken(line);
+            return -1;
+        }
+        return digits ? value : -1;
+    }
+}
@@ -0,0 +1,295 @@
+package com.ldk.youtube.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 边下边传：yt-dlp把视频写到标准输出，直接转发给客户端，不等下载和合并结束
+ * 只使用不需要合并的单文件格式；可同时把数据写入临时文件，完整下载后登记为下载产物，后续请求直接发送文件
+ */
+@Service
+public class ProgressiveDownloadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProgressiveDownloadService.class);
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    // 进程退出后等待错误流读取完毕的最长时间（秒）
+    private static final int ERROR_DRAIN_TIMEOUT_SECONDS = 5;
+
+    @Autowired
+    private ToolchainRegistry toolchainRegistry;
+
+    @Autowired
+    private ArtifactStore artifactStore;
+
+    @Autowired
+    private StorageManager storageManager;
+
+    @Autowired
+    private ProcessOutputPump processOutputPump;
+
+    @Autowired
+    private BandwidthScheduler bandwidthScheduler;
+
+    @Autowired
+    private DownloadMetrics downloadMetrics;
+
+    @Autowired
+    private DownloadWatchdog downloadWatchdog;
+
+    // 同时进行的边下边传数，每个占用一个请求线程和一个yt-dlp进程
+    @Value("${youtube.stream.max-concurrent:3}")
+    private int maxConcurrent;
+
+    // 是否同时写入文件并登记为下载产物
+    @Value("${youtube.stream.tee:true}")
+    private boolean tee;
+
+    @Value("${youtube.download.retry-after-seconds:30}")
+    private int retryAfterSeconds;
+
+    private Semaphore permits;
+
+    @PostConstruct
+    public void init() {
+        permits = new Semaphore(Math.max(1, maxConcurrent));
+        downloadMetrics.registerGauge("youtube.streams.active", "进行中的边下边传数",
+                () -> Math.max(1, maxConcurrent) - permits.availablePermits());
+    }
+
+    /**
+     * 接收转发数据的目标，在收到第一块数据、确定容器格式后打开
+     */
+    public interface StreamTarget {
+        /**
+         * @param contentType 内容类型，如video/mp4
+         * @param extension 文件扩展名，如mp4
+         * @return 写入数据的输出流
+         */
+        OutputStream open(String contentType, String extension) throws IOException;
+    }
+
+    /**
+     * 边下边传使用的格式选择器，只选择音视频在同一个文件中的格式，优先mp4
+     * 指定的itag大多是只有视频的DASH格式，只在它同时带音频时使用，否则退回最佳的单文件格式，不会输出无声视频
+     */
+    public static String getFormatSelector(String quality) {
+        if (quality.matches("\\d+")) {
+            return quality + "[acodec!=none][vcodec!=none]/best[ext=mp4]/best";
+        }
+        if (quality.matches("\\d+p")) {
+            String height = quality.substring(0, quality.length() - 1);
+            return "best[height<=" + height + "][ext=mp4]/best[height<=" + height + "]/best";
+        }
+        return "best[ext=mp4]/best";
+    }
+
+    /**
+     * 查找之前边下边传时已完整保存的文件
+     * @return 文件，不存在时返回null
+     */
+    public File findArtifact(String url, String quality) {
+        ArtifactStore.Artifact artifact = artifactStore.lookup(
+                ArtifactStore.artifactKey(VideoUrls.extractVideoId(url), getFormatSelector(quality)));
+        return artifact != null ? new File(artifact.getPath()) : null;
+    }
+
+    /**
+     * 启动yt-dlp并把输出转发给目标，直到下载结束或客户端断开
+     * @param url 视频URL
+     * @param quality 视频质量
+     * @param target 转发目标
+     * @return 转发的字节数
+     * @throws DownloadRejectedException 同时进行的边下边传已达上限
+     * @throws IllegalStateException yt-dlp不可用或在输出任何数据前失败，此时目标尚未打开
+     * @throws IOException 写入目标失败（如客户端断开），或已开始转发后yt-dlp异常退出或被看门狗结束
+     */
+    public long stream(String url, String quality, StreamTarget target) throws IOException {
+        if (!toolchainRegistry.isAvailable(ToolchainRegistry.YT_DLP)) {
+            throw new IllegalStateException("yt-dlp命令不可用，请确保系统中已安装yt-dlp");
+        }
+        if (!permits.tryAcquire()) {
+            throw new DownloadRejectedException(maxConcurrent, retryAfterSeconds);
+        }
+
+        String streamId = "stream-" + UUID.randomUUID();
+        String videoId = VideoUrls.extractVideoId(url);
+        String formatSelector = getFormatSelector(quality);
+        String artifactKey = ArtifactStore.artifactKey(videoId, formatSelector);
+        Path stagingDir = null;
+        Process process = null;
+        try {
+            if (tee && artifactKey != null) {
+                stagingDir = artifactStore.createStagingDir(streamId);
+                if (!storageManager.reserve(streamId, -1, stagingDir)) {
+                    // 空间不足时只转发，不保存
+                    artifactStore.deleteStagingDir(stagingDir);
+                    stagingDir = null;
+                }
+            }
+
+            List<String> command = new ArrayList<>(Arrays.asList(
+                    toolchainRegistry.getCommand(ToolchainRegistry.YT_DLP), "-f", formatSelector));
+            command.addAll(YoutubeDownloadService.NETWORK_OPTIONS);
+            command.addAll(Arrays.asList("--no-playlist", "-o", "-", url));
+            process = new ProcessBuilder(command).start();
+            bandwidthScheduler.register(streamId, process);
+            // yt-dlp卡住时read会一直阻塞，由看门狗结束进程，read随之返回
+            AtomicLong transferred = new AtomicLong();
+            AtomicReference<String> abortReason = new AtomicReference<>();
+            downloadWatchdog.watchStream(streamId, process, transferred::get,
+                    reason -> abortReason.compareAndSet(null, reason));
+            logger.info("边下边传开始 [{}]: URL={}, 格式={}", streamId, url, formatSelector);
+
+            // 标准输出是视频数据，错误流中只保留最后一条错误用于失败提示
+            String[] lastError = new String[1];
+            CompletableFuture<Void> errorDone = processOutputPump.pump(process, process.getErrorStream(), line -> {
+                if (line.startsWith("ERROR")) {
+                    lastError[0] = line;
+                }
+                logger.debug("边下边传 [{}] 输出: {}", streamId, line);
+            }, streamId + " stderr");
+
+            InputStream in = process.getInputStream();
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int read = in.read(buffer);
+            if (read < 0) {
+                int exitCode = process.waitFor();
+                if (abortReason.get() != null) {
+                    throw new IllegalStateException(describeAbort(abortReason.get()));
+                }
+                awaitErrors(errorDone);
+                throw new IllegalStateException(lastError[0] != null ? lastError[0] : "yt-dlp没有输出数据，退出码: " + exitCode);
+            }
+
+            String extension = sniffExtension(buffer, read);
+            OutputStream out = target.open("webm".equals(extension) ? "video/webm" : "video/mp4", extension);
+            File teeFile = stagingDir != null ? stagingDir.resolve(videoId + " " + fileTag(formatSelector) + "." + extension).toFile() : null;
+            OutputStream teeOut = teeFile != null ? Files.newOutputStream(teeFile.toPath()) : null;
+
+            long total = 0;
+            try {
+                do {
+                    out.write(buffer, 0, read);
+                    // 每块都刷出，客户端尽快收到数据
+                    out.flush();
+                    if (teeOut != null) {
+                        try {
+                            teeOut.write(buffer, 0, read);
+                        } catch (IOException e) {
+                            logger.warn("边下边传 [{}] 写入文件失败，只转发不保存: {}", streamId, e.getMessage());
+                            closeQuietly(teeOut);
+                            teeOut = null;
+                        }
+                    }
+                    total += read;
+                    transferred.set(total);
+                    bandwidthScheduler.recordBytes(streamId, read);
+                } while ((read = in.read(buffer)) >= 0);
+            } finally {
+                downloadMetrics.addBytesDownloaded(total);
+                downloadMetrics.addBytesServed(total);
+                if (teeOut != null) {
+                    closeQuietly(teeOut);
+                }
+            }
+
+            int exitCode = process.waitFor();
+            if (abortReason.get() != null) {
+                throw new IOException(describeAbort(abortReason.get()));
+            }
+            if (exitCode != 0) {
+                awaitErrors(errorDone);
+                // 已经开始发送，只能中断响应让客户端知道数据不完整
+                throw new IOException("yt-dlp异常退出，退出码: " + exitCode
+                        + (lastError[0] != null ? "，" + lastError[0] : ""));
+            }
+            if (teeOut != null) {
+                File file = artifactStore.promote(teeFile);
+                artifactStore.register(artifactKey, file);
+                artifactStore.markDelivered(file.getAbsolutePath());
+            }
+            logger.info("边下边传完成 [{}]: {} 字节", streamId, total);
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("边下边传被中断", e);
+        } finally {
+            if (process != null) {
+                downloadWatchdog.unwatch(streamId);
+                if (process.isAlive()) {
+                    // 客户端断开或出错，结束下载
+                    ProcessSupport.destroyTree(process);
+                    logger.info("边下边传 [{}] 提前结束，已结束下载进程", streamId);
+                }
+                bandwidthScheduler.unregister(streamId);
+            }
+            if (stagingDir != null) {
+                storageManager.release(streamId);
+                artifactStore.deleteStagingDir(stagingDir);
+            }
+            permits.release();
+        }
+    }
+
+    private static String describeAbort(String reason) {
+        return YoutubeDownloadService.DownloadStatus.ABORT_TIMEOUT.equals(reason)
+                ? "边下边传超过总时限，已结束下载进程" : "yt-dlp长时间没有输出数据，已结束下载进程";
+    }
+
+    /**
+     * 根据文件头识别容器格式：WebM以EBML头开始，其他按mp4处理
+     */
+    private static String sniffExtension(byte[] data, int length) {
+        if (length >= 4 && (data[0] & 0xFF) == 0x1A && (data[1] & 0xFF) == 0x45
+                && (data[2] & 0xFF) == 0xDF && (data[3] & 0xFF) == 0xA3) {
+            return "webm";
+        }
+        return "mp4";
+    }
+
+    private static String fileTag(String formatSelector) {
+        return DigestUtils.md5DigestAsHex(formatSelector.getBytes(StandardCharsets.UTF_8)).substring(0, 8);
+    }
+
+    private static void awaitErrors(CompletableFuture<Void> errorDone) throws InterruptedException {
+        try {
+            errorDone.get(ERROR_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // 只影响失败提示
+        }
+    }
+
+    private static void closeQuietly(OutputStream out) {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+}
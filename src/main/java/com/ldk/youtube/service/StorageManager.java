@@ -0,0 +1,237 @@
+package com.ldk.youtube.service;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 下载目录的空间管理
+ * <ul>
+ *     <li>配额：已登记产物的总大小加上进行中下载的预留不超过配额，超出时按最后访问时间回收产物（LRU）</li>
+ *     <li>预留：下载开始前按预计大小预留空间，磁盘剩余空间不够（回收后仍不够）时不开始下载，避免下载到一半磁盘写满</li>
+ * </ul>
+ * 各下载临时目录已写入的大小由后台线程定时统计，预留和指标只读取统计结果，不在锁内遍历目录。
+ * 只回收已发送给客户端、或超过已完成任务保留时间未被访问的产物，刚下载完还没被取走的文件不会被回收。
+ */
+@Component
+public class StorageManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageManager.class);
+
+    private static final long MB = 1024L * 1024L;
+
+    @Autowired
+    private ArtifactStore artifactStore;
+
+    @Autowired
+    private DownloadMetrics downloadMetrics;
+
+    // 下载产物总大小上限（MB），0表示不限制
+    @Value("${youtube.storage.quota-mb:0}")
+    private long quotaMb;
+
+    // 磁盘上至少保留的剩余空间（MB）
+    @Value("${youtube.storage.min-free-mb:1024}")
+    private long minFreeMb;
+
+    // 预留空间 = 预计文件大小 × 该系数，合并音视频时原始分片和合并结果同时存在
+    @Value("${youtube.storage.reserve-factor:2.0}")
+    private double reserveFactor;
+
+    // 无法预计文件大小时的预留空间（MB）
+    @Value("${youtube.storage.default-reservation-mb:500}")
+    private long defaultReservationMb;
+
+    // 未发送过的产物在最后一次访问后多久才允许回收（分钟），与已完成任务的保留时间一致
+    @Value("${youtube.tasks.completed-ttl-minutes:60}")
+    private long undeliveredTtlMinutes;
+
+    // 统计临时目录已写入大小的间隔（秒）
+    @Value("${youtube.storage.usage-refresh-seconds:5}")
+    private long usageRefreshSeconds;
+
+    // 进行中下载的预留，按任务ID登记
+    private final Map<String, Reservation> reservations = new HashMap<>();
+
+    private ScheduledExecutorService usageRefresher;
+
+    @PostConstruct
+    public void init() {
+        usageRefresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "storage-usage");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, usageRefreshSeconds);
+        usageRefresher.scheduleWithFixedDelay(this::refreshUsage, interval, interval, TimeUnit.SECONDS);
+
+        downloadMetrics.registerGauge("youtube.storage.used", "已登记下载产物的总字节数", artifactStore::getTotalSize);
+        downloadMetrics.registerGauge("youtube.storage.reserved", "进行中下载预留的字节数", this::getReservedBytes);
+        downloadMetrics.registerGauge("youtube.storage.free", "下载目录所在磁盘的剩余字节数",
+                () -> artifactStore.getRoot().toFile().getUsableSpace());
+    }
+
+    @PreDestroy
+    public void stop() {
+        usageRefresher.shutdownNow();
+    }
+
+    /**
+     * 为即将开始的下载预留空间，空间不足时先回收产物
+     * @param taskId 任务ID
+     * @param estimatedBytes 预计文件大小，未知时为-1
+     * @param stagingDir 任务临时目录，已写入的部分不再重复计算
+     * @return 预留成功返回true，回收后仍不足时返回false
+     */
+    public synchronized boolean reserve(String taskId, long estimatedBytes, Path stagingDir) {
+        long bytes = estimatedBytes > 0 ? (long) (estimatedBytes * reserveFactor) : defaultReservationMb * MB;
+        long reserved = getReservedBytes();
+        long needed = Math.max(freeSpaceShortfall(reserved + bytes), quotaShortfall(bytes));
+        if (needed > 0 && evict(needed) < needed) {
+            logger.warn("下载任务 [{}] 空间不足: 需要预留 {} MB，可用空间 {} MB，已预留 {} MB", taskId,
+                    bytes / MB, artifactStore.getRoot().toFile().getUsableSpace() / MB, reserved / MB);
+            return false;
+        }
+        reservations.put(taskId, new Reservation(bytes, stagingDir));
+        return true;
+    }
+
+    /**
+     * 释放下载任务的预留，下载完成后按配额回收多出的产物
+     */
+    public synchronized void release(String taskId) {
+        if (reservations.remove(taskId) != null) {
+            long excess = quotaShortfall(0);
+            if (excess > 0) {
+                evict(excess);
+            }
+        }
+    }
+
+    /**
+     * 进行中下载尚未写入磁盘的预留字节数，按最近一次统计的已写入大小计算
+     */
+    public synchronized long getReservedBytes() {
+        long total = 0;
+        for (Reservation reservation : reservations.values()) {
+            total += reservation.outstanding();
+        }
+        return total;
+    }
+
+    /**
+     * 空间使用情况，用于健康检查
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("root", artifactStore.getRoot().toString());
+        stats.put("usedBytes", artifactStore.getTotalSize());
+        stats.put("reservedBytes", getReservedBytes());
+        stats.put("freeBytes", artifactStore.getRoot().toFile().getUsableSpace());
+        stats.put("quotaBytes", quotaMb > 0 ? quotaMb * MB : null);
+        return stats;
+    }
+
+    /**
+     * 统计各临时目录已写入的大小，在锁外遍历目录
+     */
+    private void refreshUsage() {
+        List<Reservation> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(reservations.values());
+        }
+        for (Reservation reservation : snapshot) {
+            reservation.refresh();
+        }
+    }
+
+    private long freeSpaceShortfall(long reservedBytes) {
+        long usable = artifactStore.getRoot().toFile().getUsableSpace();
+        return reservedBytes + minFreeMb * MB - usable;
+    }
+
+    /**
+     * 配额按完整预留计算，临时目录中已写入的部分还不算在产物总大小里
+     * @param additionalBytes 本次新增的预留
+     */
+    private long quotaShortfall(long additionalBytes) {
+        if (quotaMb <= 0) {
+            return 0;
+        }
+        long reserved = additionalBytes;
+        for (Reservation reservation : reservations.values()) {
+            reserved += reservation.bytes;
+        }
+        return artifactStore.getTotalSize() + reserved - quotaMb * MB;
+    }
+
+    /**
+     * 按最后访问时间回收产物，直到释放了指定大小
+     * @return 实际释放的字节数
+     */
+    private long evict(long bytes) {
+        long now = System.currentTimeMillis();
+        long undeliveredTtlMs = TimeUnit.MINUTES.toMillis(undeliveredTtlMinutes);
+        long freed = 0;
+        for (ArtifactStore.Artifact artifact : artifactStore.listByLastAccess()) {
+            if (freed >= bytes) {
+                break;
+            }
+            boolean evictable = artifact.getDeliveredAt() > 0 || now - artifact.getLastAccessAt() > undeliveredTtlMs;
+            if (evictable && artifactStore.evict(artifact)) {
+                freed += artifact.getSize();
+            }
+        }
+        if (freed > 0) {
+            logger.info("回收下载产物共 {} MB", freed / MB);
+        }
+        return freed;
+    }
+
+    /**
+     * 一个进行中下载的预留
+     */
+    private static class Reservation {
+        private final long bytes;
+        private final File stagingDir;
+        // 最近一次统计的临时目录已写入字节数
+        private volatile long written;
+
+        Reservation(long bytes, Path stagingDir) {
+            this.bytes = bytes;
+            this.stagingDir = stagingDir.toFile();
+        }
+
+        /**
+         * 预留中还没有写入磁盘的部分，已写入的部分已经体现在剩余空间里
+         */
+        long outstanding() {
+            return Math.max(0, bytes - written);
+        }
+
+        void refresh() {
+            try {
+                if (stagingDir.isDirectory()) {
+                    written = FileUtils.sizeOfDirectory(stagingDir);
+                }
+            } catch (RuntimeException e) {
+                // 统计时yt-dlp正在重命名或删除中间文件，保留上一次的结果
+            }
+        }
+    }
+}
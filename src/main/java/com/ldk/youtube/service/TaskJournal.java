@@ -0,0 +1,295 @@
+package com.ldk.youtube.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 下载任务状态日志（追加写）
+ * 每次任务状态变化追加一行JSON，启动时重放得到每个任务的最新状态，用于重启后恢复任务
+ */
+@Component
+public class TaskJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskJournal.class);
+
+    // 任务被清理时记录的状态
+    public static final String REMOVED = "removed";
+
+    // 日志行数超过存活任务数的该倍数时压缩
+    private static final int COMPACT_FACTOR = 4;
+    private static final int COMPACT_MIN_LINES = 1000;
+
+    @Value("${youtube.task-journal.file:${youtube.download.dir:${user.home}/Downloads/youtube-downloads}/.task-journal.jsonl}")
+    private String journalFile;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    // 每个存活任务的最新记录，用于压缩日志
+    private final Map<String, Record> latest = new LinkedHashMap<>();
+
+    private Path path;
+    private BufferedWriter writer;
+    private int lineCount;
+
+    @PostConstruct
+    public synchronized void init() throws IOException {
+        path = Paths.get(journalFile).toAbsolutePath();
+        Files.createDirectories(path.getParent());
+        replay();
+        compact();
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        closeWriter();
+    }
+
+    /**
+     * 获取重放后每个存活任务的最新记录
+     */
+    public synchronized List<Record> getLatestRecords() {
+        return new ArrayList<>(latest.values());
+    }
+
+    /**
+     * 记录任务状态
+     * @param status 下载任务状态
+     */
+    public void record(YoutubeDownloadService.DownloadStatus status) {
+        record(status, -1);
+    }
+
+    /**
+     * 记录任务状态
+     * @param status 下载任务状态
+     * @param pid 正在运行的yt-dlp进程ID，未知时为-1
+     */
+    public void record(YoutubeDownloadService.DownloadStatus status, long pid) {
+        Record record = new Record();
+        record.setTaskId(status.getTaskId());
+        record.setState(status.getStatus());
+        record.setUrl(status.getYoutubeUrl());
+        record.setQuality(status.getQuality());
+        record.setOutputFile(status.getOutputFile());
+        record.setMessage(status.getMessage());
+        record.setClientId(status.getClientId());
+        record.setPriority(status.getClientId() != null ? status.getPriority() : null);
+        record.setPid(pid > 0 ? pid : null);
+        record.setTime(System.currentTimeMillis());
+        append(record);
+    }
+
+    /**
+     * 记录任务已被清理
+     * @param taskId 任务ID
+     */
+    public void recordRemoved(String taskId) {
+        Record record = new Record();
+        record.setTaskId(taskId);
+        record.setState(REMOVED);
+        record.setTime(System.currentTimeMillis());
+        append(record);
+    }
+
+    private synchronized void append(Record record) {
+        apply(record);
+        try {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            writer.write(objectMapper.writeValueAsString(record));
+            writer.newLine();
+            writer.flush();
+            lineCount++;
+        } catch (IOException e) {
+            logger.error("写入任务状态日志失败: {}", e.getMessage());
+            return;
+        }
+        if (lineCount > Math.max(COMPACT_MIN_LINES, latest.size() * COMPACT_FACTOR)) {
+            compact();
+        }
+    }
+
+    private void apply(Record record) {
+        if (REMOVED.equals(record.getState())) {
+            latest.remove(record.getTaskId());
+        } else {
+            latest.put(record.getTaskId(), record);
+        }
+    }
+
+    private void replay() {
+        if (!Files.isRegularFile(path)) {
+            return;
+        }
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    apply(objectMapper.readValue(line, Record.class));
+                    lines++;
+                } catch (IOException e) {
+                    // 进程崩溃时最后一行可能只写了一半
+                    logger.warn("跳过无法解析的任务状态记录: {}", line);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("读取任务状态日志失败: {}", e.getMessage());
+        }
+        logger.info("重放任务状态日志: {} 条记录，{} 个存活任务", lines, latest.size());
+    }
+
+    /**
+     * 只保留每个存活任务的最新记录，重写日志文件
+     */
+    private void compact() {
+        closeWriter();
+        try {
+            Path temp = Files.createTempFile(path.getParent(), ".task-journal", ".tmp");
+            try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Record record : latest.values()) {
+                    out.write(objectMapper.writeValueAsString(record));
+                    out.newLine();
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lineCount = latest.size();
+        } catch (IOException e) {
+            logger.error("压缩任务状态日志失败: {}", e.getMessage());
+        }
+    }
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            logger.warn("关闭任务状态日志失败: {}", e.getMessage());
+        }
+        writer = null;
+    }
+
+    /**
+     * 一条任务状态记录
+     */
+    public static class Record {
+        private String taskId;
+        private String state;
+        private String url;
+        private String quality;
+        private String outputFile;
+        private String message;
+        private String clientId;
+        private Integer priority;
+        private Long pid;
+        private long time;
+
+        public String getTaskId() {
+            return taskId;
+        }
+
+        public void setTaskId(String taskId) {
+            this.taskId = taskId;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        public void setState(String state) {
+            this.state = state;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getQuality() {
+            return quality;
+        }
+
+        public void setQuality(String quality) {
+            this.quality = quality;
+        }
+
+        public String getOutputFile() {
+            return outputFile;
+        }
+
+        public void setOutputFile(String outputFile) {
+            this.outputFile = outputFile;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public void setMessage(String message) {
+            this.message = message;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public void setClientId(String clientId) {
+            this.clientId = clientId;
+        }
+
+        public Integer getPriority() {
+            return priority;
+        }
+
+        public void setPriority(Integer priority) {
+            this.priority = priority;
+        }
+
+        public Long getPid() {
+            return pid;
+        }
+
+        public void setPid(Long pid) {
+            this.pid = pid;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public void setTime(long time) {
+            this.time = time;
+        }
+    }
+}
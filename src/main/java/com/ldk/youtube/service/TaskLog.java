@@ -0,0 +1,177 @@
+package com.ldk.youtube.service;
+
+import org.apache.commons.io.input.ReversedLinesFileReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 下载任务日志
+ * 内存中只保留最近的固定行数（环形缓冲），完整日志写入任务自己的日志文件
+ */
+public class TaskLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskLog.class);
+
+    private static final String OUTPUT_PREFIX = "[out] ";
+    private static final String ERROR_PREFIX = "[err] ";
+
+    private final File file;
+
+    // 环形缓冲：最近的日志行及其是否来自错误流
+    private final String[] lines;
+    private final boolean[] errorFlags;
+    private int next;
+    private int size;
+
+    // 日志文件写入器，首次写入时打开，任务结束时关闭
+    private BufferedWriter writer;
+    private boolean spillFailed;
+
+    /**
+     * @param file 完整日志文件，为null时只保留内存中的最近日志
+     * @param capacity 内存中保留的最大行数
+     */
+    public TaskLog(File file, int capacity) {
+        this.file = file;
+        this.lines = new String[capacity];
+        this.errorFlags = new boolean[capacity];
+    }
+
+    /**
+     * 追加一行标准输出
+     */
+    public void appendOutput(String line) {
+        append(line, false);
+    }
+
+    /**
+     * 追加一行错误输出
+     */
+    public void appendError(String line) {
+        append(line, true);
+    }
+
+    private synchronized void append(String line, boolean error) {
+        lines[next] = line;
+        errorFlags[next] = error;
+        next = (next + 1) % lines.length;
+        if (size < lines.length) {
+            size++;
+        }
+        spill(line, error);
+    }
+
+    /**
+     * 获取内存中保留的最近几行输出或错误
+     * @param error true取错误流，false取标准输出
+     */
+    public synchronized String recent(boolean error) {
+        StringBuilder sb = new StringBuilder();
+        int start = (next - size + lines.length) % lines.length;
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % lines.length;
+            if (errorFlags[index] == error) {
+                sb.append(lines[index]).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 获取最后n行日志（标准输出和错误流按时间顺序混合，带 [out]/[err] 前缀）
+     * 内存中的行数不够时从日志文件末尾读取
+     * @param n 行数
+     */
+    public synchronized List<String> tail(int n) {
+        if (n <= size || file == null || !file.isFile()) {
+            int count = Math.min(n, size);
+            List<String> result = new ArrayList<>(count);
+            int start = (next - count + lines.length) % lines.length;
+            for (int i = 0; i < count; i++) {
+                int index = (start + i) % lines.length;
+                result.add((errorFlags[index] ? ERROR_PREFIX : OUTPUT_PREFIX) + lines[index]);
+            }
+            return result;
+        }
+
+        try {
+            if (writer != null) {
+                writer.flush();
+            }
+            List<String> result = new ArrayList<>(n);
+            try (ReversedLinesFileReader reader = new ReversedLinesFileReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while (result.size() < n && (line = reader.readLine()) != null) {
+                    result.add(line);
+                }
+            }
+            Collections.reverse(result);
+            return result;
+        } catch (IOException e) {
+            logger.warn("读取任务日志文件失败: {} ({})", file, e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 获取完整日志文件
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 关闭日志文件写入器，任务结束时调用
+     */
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            logger.warn("关闭任务日志文件失败: {} ({})", file, e.getMessage());
+        }
+        writer = null;
+    }
+
+    /**
+     * 关闭并删除日志文件
+     */
+    public synchronized void delete() {
+        close();
+        if (file != null && file.exists() && !file.delete()) {
+            logger.warn("删除任务日志文件失败: {}", file);
+        }
+    }
+
+    private void spill(String line, boolean error) {
+        if (file == null || spillFailed) {
+            return;
+        }
+        try {
+            if (writer == null) {
+                writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8));
+            }
+            writer.write(error ? ERROR_PREFIX : OUTPUT_PREFIX);
+            writer.write(line);
+            writer.newLine();
+        } catch (IOException e) {
+            // 写文件失败时只保留内存日志
+            spillFailed = true;
+            logger.warn("写入任务日志文件失败: {} ({})", file, e.getMessage());
+        }
+    }
+}
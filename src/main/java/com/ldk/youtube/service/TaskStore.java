@@ -0,0 +1,57 @@
+package com.ldk.youtube.service;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 下载任务存储
+ * 本节点的任务以 {@link YoutubeDownloadService.DownloadStatus} 保存在内存中，下载进程和文件都在本节点上；
+ * 共享存储的实现另外写入任务状态快照和节点地址，供其他节点查询任务归属和状态。
+ * 通过 youtube.task-store.type 选择实现：memory（默认，单机）或 file（共享目录）。
+ */
+public interface TaskStore {
+
+    /**
+     * 登记本节点的任务
+     */
+    void put(YoutubeDownloadService.DownloadStatus status);
+
+    /**
+     * 获取本节点的任务
+     * @return 任务状态，不存在时返回null
+     */
+    YoutubeDownloadService.DownloadStatus get(String taskId);
+
+    /**
+     * 移除本节点的任务
+     * @return 被移除的任务状态，不存在时返回null
+     */
+    YoutubeDownloadService.DownloadStatus remove(String taskId);
+
+    /**
+     * 本节点的所有任务
+     */
+    Collection<YoutubeDownloadService.DownloadStatus> getAll();
+
+    /**
+     * 本节点的任务数
+     */
+    int size();
+
+    /**
+     * 任务状态变化（开始下载、完成、失败、取消）后调用，共享存储据此更新快照
+     */
+    void update(YoutubeDownloadService.DownloadStatus status);
+
+    /**
+     * 查询任务状态快照，包括其他节点的任务
+     * @return 状态快照，不支持或不存在时返回null
+     */
+    Map<String, Object> findSnapshot(String taskId);
+
+    /**
+     * 查询节点登记的访问地址
+     * @return 地址，不支持、未登记或节点已失联时返回null
+     */
+    String findNodeUrl(String nodeId);
+}
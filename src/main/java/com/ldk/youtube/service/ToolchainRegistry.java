@@ -0,0 +1,272 @@
+package com.ldk.youtube.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 外部工具注册表
+ * 启动时探测一次yt-dlp、ffmpeg、python，之后在后台定期复查；请求处理时直接读取缓存结果，不再创建子进程
+ */
+@Component
+public class ToolchainRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(ToolchainRegistry.class);
+
+    public static final String YT_DLP = "yt-dlp";
+    public static final String FFMPEG = "ffmpeg";
+    public static final String PYTHON = "python";
+
+    // 单个工具探测的超时时间（秒）
+    private static final int PROBE_TIMEOUT_SECONDS = 10;
+
+    // 进程退出后等待输出读取完毕的最长时间（秒）
+    private static final int OUTPUT_DRAIN_TIMEOUT_SECONDS = 2;
+
+    @Autowired
+    private DownloadMetrics downloadMetrics;
+
+    @Autowired
+    private ProcessOutputPump processOutputPump;
+
+    @Value("${youtube.toolchain.yt-dlp-command:yt-dlp}")
+    private String ytDlpCommand;
+
+    @Value("${youtube.toolchain.ffmpeg-command:ffmpeg}")
+    private String ffmpegCommand;
+
+    @Value("${youtube.toolchain.python-command:python3}")
+    private String pythonCommand;
+
+    // 后台复查间隔（秒）
+    @Value("${youtube.toolchain.revalidate-interval-seconds:300}")
+    private long revalidateIntervalSeconds;
+
+    // 最近一次探测结果，整体替换，读取时无需加锁
+    private volatile Map<String, ToolStatus> tools = Collections.emptyMap();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        logger.info("系统环境信息:");
+        logger.info("  操作系统: {} {}", System.getProperty("os.name"), System.getProperty("os.version"));
+        logger.info("  Java版本: {}", System.getProperty("java.version"));
+        logger.info("  临时目录: {}", System.getProperty("java.io.tmpdir"));
+
+        probeAll();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "toolchain-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::probeAll, revalidateIntervalSeconds, revalidateIntervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 工具是否可用（读取缓存的探测结果）
+     * @param name 工具名，如 {@link #YT_DLP}
+     */
+    public boolean isAvailable(String name) {
+        ToolStatus status = tools.get(name);
+        return status != null && status.isAvailable();
+    }
+
+    /**
+     * 获取执行工具时使用的命令，已解析到绝对路径时返回绝对路径
+     * @param name 工具名，如 {@link #YT_DLP}
+     */
+    public String getCommand(String name) {
+        ToolStatus status = tools.get(name);
+        if (status != null && status.getPath() != null) {
+            return status.getPath();
+        }
+        return configuredCommand(name);
+    }
+
+    /**
+     * 获取所有工具的探测结果
+     */
+    public Map<String, ToolStatus> getTools() {
+        return tools;
+    }
+
+    /**
+     * 重新探测所有工具并整体替换结果
+     */
+    public void probeAll() {
+        Map<String, ToolStatus> result = new LinkedHashMap<>();
+        result.put(YT_DLP, probe(YT_DLP, "--version"));
+        result.put(FFMPEG, probe(FFMPEG, "-version"));
+        result.put(PYTHON, probe(PYTHON, "--version"));
+
+        Map<String, ToolStatus> previous = tools;
+        tools = Collections.unmodifiableMap(result);
+
+        for (ToolStatus status : result.values()) {
+            ToolStatus old = previous.get(status.getName());
+            boolean changed = old == null || old.isAvailable() != status.isAvailable()
+                    || !String.valueOf(old.getVersion()).equals(String.valueOf(status.getVersion()));
+            if (!changed) {
+                continue;
+            }
+            if (status.isAvailable()) {
+                logger.info("  {} 版本: {} ({})", status.getName(), status.getVersion(), status.getPath());
+            } else if (YT_DLP.equals(status.getName())) {
+                logger.error("yt-dlp命令不可用，请确保已正确安装。可通过以下命令安装：brew install yt-dlp 或 pip install yt-dlp ({})",
+                        status.getError());
+            } else {
+                logger.warn("  {} 命令不可用: {}", status.getName(), status.getError());
+            }
+        }
+    }
+
+    private ToolStatus probe(String name, String versionArg) {
+        long startNanos = System.nanoTime();
+        try {
+            return doProbe(name, versionArg);
+        } finally {
+            downloadMetrics.recordPhase(DownloadMetrics.PHASE_PROBE, System.nanoTime() - startNanos);
+        }
+    }
+
+    private ToolStatus doProbe(String name, String versionArg) {
+        String command = configuredCommand(name);
+        String path = resolvePath(command);
+        if (path == null) {
+            return new ToolStatus(name, false, null, null, "在PATH中找不到命令: " + command);
+        }
+
+        try {
+            Process process = new ProcessBuilder(path, versionArg).redirectErrorStream(true).start();
+            // 输出交给读取器并发读完，超时由waitFor控制，卡住的工具不会阻塞启动
+            AtomicReference<String> firstLine = new AtomicReference<>();
+            CompletableFuture<Void> output = processOutputPump.pump(process, process.getInputStream(),
+                    line -> firstLine.compareAndSet(null, line), name + " probe");
+            if (!process.waitFor(PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                ProcessSupport.destroyTree(process);
+                return new ToolStatus(name, false, path, null, "获取版本超时");
+            }
+            try {
+                output.get(OUTPUT_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                // 子进程留下的后代进程还持有管道，不再等待
+                logger.debug("{} 版本输出未读完", name);
+            } catch (ExecutionException e) {
+                logger.debug("读取 {} 版本输出失败: {}", name, e.getCause().getMessage());
+            }
+            String version = firstLine.get();
+            if (process.exitValue() != 0) {
+                return new ToolStatus(name, false, path, version, "获取版本失败，退出码: " + process.exitValue());
+            }
+            return new ToolStatus(name, true, path, version, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ToolStatus(name, false, path, null, "探测被中断");
+        } catch (Exception e) {
+            return new ToolStatus(name, false, path, null, e.getMessage());
+        }
+    }
+
+    private String configuredCommand(String name) {
+        switch (name) {
+            case YT_DLP:
+                return ytDlpCommand;
+            case FFMPEG:
+                return ffmpegCommand;
+            case PYTHON:
+                return pythonCommand;
+            default:
+                return name;
+        }
+    }
+
+    /**
+     * 在PATH中查找命令的绝对路径，代替执行which
+     */
+    private static String resolvePath(String command) {
+        if (command.contains(File.separator)) {
+            File file = new File(command);
+            return file.isFile() && file.canExecute() ? file.getAbsolutePath() : null;
+        }
+        String pathEnv = System.getenv("PATH");
+        if (pathEnv == null) {
+            return null;
+        }
+        for (String dir : pathEnv.split(File.pathSeparator)) {
+            File file = new File(dir, command);
+            if (file.isFile() && file.canExecute()) {
+                return file.getAbsolutePath();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 单个工具的探测结果
+     */
+    public static class ToolStatus {
+        private final String name;
+        private final boolean available;
+        private final String path;
+        private final String version;
+        private final String error;
+        private final long checkedAt;
+
+        public ToolStatus(String name, boolean available, String path, String version, String error) {
+            this.name = name;
+            this.available = available;
+            this.path = path;
+            this.version = version;
+            this.error = error;
+            this.checkedAt = System.currentTimeMillis();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isAvailable() {
+            return available;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public long getCheckedAt() {
+            return checkedAt;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package com.ldk.youtube.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 批量获取视频信息
+ * 未缓存的链接分组后交给同一个yt-dlp进程解析（yt-dlp -j对每个链接输出一行JSON），各组在有限的线程池中并行；
+ * 每解析出一个视频就交给调用方，不等整批结束。
+ * 待解析的视频登记在视频信息缓存的进行中解析里，与单个获取互相合并，同一视频不会同时解析两次。
+ */
+@Service
+public class VideoInfoBatchService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoInfoBatchService.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    // yt-dlp的错误行，如 ERROR: [youtube] dQw4w9WgXcQ: Video unavailable
+    private static final Pattern ERROR_LINE = Pattern.compile("^ERROR: \\[[^\\]]+\\] ([^:\\s]+): (.*)$");
+
+    // 进程退出后等待错误流读取完毕的最长时间（秒）
+    private static final int ERROR_DRAIN_TIMEOUT_SECONDS = 5;
+
+    @Autowired
+    private ToolchainRegistry toolchainRegistry;
+
+    @Autowired
+    private VideoInfoCache videoInfoCache;
+
+    @Autowired
+    private YoutubeDownloadService youtubeDownloadService;
+
+    @Autowired
+    private ProcessOutputPump processOutputPump;
+
+    @Autowired
+    private DownloadMetrics downloadMetrics;
+
+    // 单次请求最多的链接数
+    @Value("${youtube.video-info.batch.max-urls:200}")
+    private int maxUrls;
+
+    // 每个yt-dlp进程最多解析的链接数，链接较少时按并行数平均分组
+    @Value("${youtube.video-info.batch.chunk-size:10}")
+    private int chunkSize;
+
+    // 同时运行的yt-dlp进程数，所有批量请求共用
+    @Value("${youtube.video-info.batch.parallelism:8}")
+    private int parallelism;
+
+    // 单个yt-dlp进程的最长运行时间（秒）
+    @Value("${youtube.video-info.batch.timeout-seconds:180}")
+    private long timeoutSeconds;
+
+    private ThreadPoolExecutor executor;
+
+    private ScheduledExecutorService timeouts;
+
+    private final Set<Process> runningProcesses = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        int size = Math.max(1, parallelism);
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "video-info-batch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        downloadMetrics.bindExecutor(executor, "videoInfoBatchExecutor");
+        timeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "video-info-batch-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+        timeouts.shutdownNow();
+        for (Process process : runningProcesses) {
+            ProcessSupport.destroyTree(process);
+        }
+    }
+
+    /**
+     * 接收单个链接的结果，在调用 {@link #resolve} 的线程中执行
+     */
+    public interface ResultListener {
+        /**
+         * @param index 链接在请求列表中的位置
+         * @param url 请求的链接
+         * @param info 视频信息，失败时为null
+         * @param error 失败原因，成功时为null
+         */
+        void onResult(int index, String url, Map<String, Object> info, String error) throws IOException;
+    }
+
+    /**
+     * 获取一组链接的视频信息，每个链接恰好回调一次，回调顺序为完成顺序
+     * 缓存命中的先返回；相同视频只解析一次，已在解析中的视频等待其结果；回调抛出异常（如客户端断开）时结束尚未完成的解析
+     * @param urls 视频链接列表
+     * @param listener 结果回调
+     * @throws IllegalArgumentException 列表为空或超过上限，此时不会回调
+     * @throws IOException 回调抛出的异常
+     */
+    public void resolve(List<String> urls, ResultListener listener) throws IOException {
+        if (urls == null || urls.isEmpty()) {
+            throw new IllegalArgumentException("视频URL列表不能为空");
+        }
+        if (urls.size() > maxUrls) {
+            throw new IllegalArgumentException("一次最多获取 " + maxUrls + " 个视频的信息");
+        }
+
+        // 按视频ID合并重复的链接
+        Map<String, List<Integer>> indexesByKey = new LinkedHashMap<>();
+        Map<String, String> urlByKey = new LinkedHashMap<>();
+        for (int i = 0; i < urls.size(); i++) {
+            String url = urls.get(i);
+            if (url == null || url.trim().isEmpty()) {
+                listener.onResult(i, url, null, "视频URL不能为空");
+                continue;
+            }
+            String key = VideoUrls.cacheKey(url);
+            indexesByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            urlByKey.putIfAbsent(key, url.trim());
+        }
+
+        Batch batch = new Batch();
+        List<Future<?>> futures = new ArrayList<>();
+        int remaining = 0;
+        try {
+            List<String> pending = new ArrayList<>();
+            Map<String, CompletableFuture<Map<String, Object>>> joined = new LinkedHashMap<>();
+            for (Map.Entry<String, List<Integer>> entry : indexesByKey.entrySet()) {
+                String key = entry.getKey();
+                Map<String, Object> cached = videoInfoCache.lookup(key);
+                if (cached != null) {
+                    emit(urls, entry.getValue(), cached, null, listener);
+                    continue;
+                }
+                CompletableFuture<Map<String, Object>> claim = new CompletableFuture<>();
+                CompletableFuture<Map<String, Object>> existing = videoInfoCache.claim(key, claim);
+                if (existing != null) {
+                    joined.put(key, existing);
+                } else {
+                    batch.claims.put(key, claim);
+                    pending.add(key);
+                }
+            }
+            remaining = pending.size() + joined.size();
+            if (remaining == 0) {
+                return;
+            }
+
+            for (Map.Entry<String, CompletableFuture<Map<String, Object>>> entry : joined.entrySet()) {
+                String key = entry.getKey();
+                entry.getValue().whenComplete((info, e) ->
+                        batch.results.add(new Item(key, info, e != null ? e.getMessage() : null)));
+            }
+            if (!pending.isEmpty() && !toolchainRegistry.isAvailable(ToolchainRegistry.YT_DLP)) {
+                for (String key : pending) {
+                    finish(batch, key, null, "yt-dlp命令不可用，请确保系统中已安装yt-dlp");
+                }
+            } else if (!pending.isEmpty()) {
+                int groupSize = Math.max(1, Math.min(chunkSize, (pending.size() + parallelism - 1) / Math.max(1, parallelism)));
+                logger.info("批量获取视频信息: {} 个链接，{} 个已缓存，{} 个正在解析中，{} 个分为 {} 组解析", urls.size(),
+                        indexesByKey.size() - remaining, joined.size(), pending.size(),
+                        (pending.size() + groupSize - 1) / groupSize);
+                for (int from = 0; from < pending.size(); from += groupSize) {
+                    Map<String, String> chunk = new LinkedHashMap<>();
+                    for (String key : pending.subList(from, Math.min(from + groupSize, pending.size()))) {
+                        chunk.put(key, urlByKey.get(key));
+                    }
+                    futures.add(executor.submit(() -> resolveChunk(chunk, batch)));
+                }
+            }
+
+            while (remaining > 0) {
+                Item item = batch.results.take();
+                remaining--;
+                emit(urls, indexesByKey.get(item.key), item.info, item.error, listener);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("批量获取视频信息被中断", e);
+        } finally {
+            if (remaining > 0) {
+                // 调用方已不再接收结果，结束进行中和排队中的解析
+                batch.cancelled.set(true);
+                for (Future<?> future : futures) {
+                    future.cancel(false);
+                }
+                for (Process process : batch.processes) {
+                    ProcessSupport.destroyTree(process);
+                }
+            }
+            // 没有运行的分组不会结束登记，这里统一结束，等待这些视频的请求不会一直阻塞
+            for (Map.Entry<String, CompletableFuture<Map<String, Object>>> entry : batch.claims.entrySet()) {
+                videoInfoCache.fail(entry.getKey(), entry.getValue(), new RuntimeException("批量获取视频信息已取消"));
+            }
+        }
+    }
+
+    /**
+     * 单次请求最多的链接数
+     */
+    public int getMaxUrls() {
+        return maxUrls;
+    }
+
+    private static void emit(List<String> urls, List<Integer> indexes, Map<String, Object> info, String error,
+                             ResultListener listener) throws IOException {
+        for (int index : indexes) {
+            listener.onResult(index, urls.get(index), info, error);
+        }
+    }
+
+    /**
+     * 用一个yt-dlp进程解析一组链接，每个链接恰好产生一个结果
+     * @param chunk 视频ID到链接的映射
+     */
+    private void resolveChunk(Map<String, String> chunk, Batch batch) {
+        Map<String, String> unresolved = new LinkedHashMap<>(chunk);
+        Map<String, String> errors = new ConcurrentHashMap<>();
+        String failure = null;
+        try {
+            if (batch.cancelled.get()) {
+                return;
+            }
+            List<String> command = new ArrayList<>(Arrays.asList(
+                    toolchainRegistry.getCommand(ToolchainRegistry.YT_DLP),
+                    "-j",  // 每个视频输出一行JSON
+                    "--no-playlist",
+                    "--ignore-errors"  // 单个视频失败时继续解析其余链接
+            ));
+            command.addAll(chunk.values());
+            long startNanos = System.nanoTime();
+            Process process = new ProcessBuilder(command).start();
+            runningProcesses.add(process);
+            batch.processes.add(process);
+            AtomicBoolean timedOut = new AtomicBoolean();
+            ScheduledFuture<?> timeout = timeouts.schedule(() -> {
+                timedOut.set(true);
+                ProcessSupport.destroyTree(process);
+            }, timeoutSeconds, TimeUnit.SECONDS);
+            try {
+                // 解析方已取消时，取消方可能还没看到进程，这里补上结束
+                if (batch.cancelled.get()) {
+                    ProcessSupport.destroyTree(process);
+                }
+                CompletableFuture<Void> stderr = processOutputPump.pump(process, process.getErrorStream(), line -> {
+                    Matcher matcher = ERROR_LINE.matcher(line);
+                    if (matcher.matches()) {
+                        errors.put(matcher.group(1), matcher.group(2));
+                    } else if (line.startsWith("ERROR:")) {
+                        errors.put("", line.substring("ERROR:".length()).trim());
+                    }
+                }, "video-info-batch stderr");
+
+                try (JsonParser parser = JSON_FACTORY.createParser(process.getInputStream())) {
+                    JsonToken token;
+                    while ((token = parser.nextToken()) != null) {
+                        if (token != JsonToken.START_OBJECT) {
+                            parser.skipChildren();
+                            continue;
+                        }
+                        VideoMetadata metadata = VideoMetadata.read(parser);
+                        String key = matchKey(metadata, unresolved);
+                        if (key == null) {
+                            logger.debug("批量获取视频信息: 无法对应到请求的链接: {}", metadata.getId());
+                            continue;
+                        }
+                        unresolved.remove(key);
+                        finish(batch, key, youtubeDownloadService.toVideoInfo(metadata), null);
+                    }
+                }
+                process.waitFor();
+                try {
+                    stderr.get(ERROR_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (TimeoutException e) {
+                    logger.debug("批量获取视频信息: 等待错误输出超时");
+                }
+                if (timedOut.get()) {
+                    failure = "获取视频信息超时（" + timeoutSeconds + " 秒）";
+                }
+                downloadMetrics.recordPhase(DownloadMetrics.PHASE_METADATA,
+                        (System.nanoTime() - startNanos) / chunk.size());
+            } finally {
+                timeout.cancel(false);
+                if (process.isAlive()) {
+                    // 读取输出出错时不再等待进程结束
+                    ProcessSupport.destroyTree(process);
+                }
+                runningProcesses.remove(process);
+                batch.processes.remove(process);
+            }
+        } catch (Exception e) {
+            if (!batch.cancelled.get()) {
+                logger.warn("批量获取视频信息失败: {}", e.getMessage());
+            }
+            failure = "获取视频信息失败: " + e.getMessage();
+        } finally {
+            // 没有输出JSON的链接按错误输出或整组的失败原因返回
+            String generic = errors.get("");
+            for (String key : unresolved.keySet()) {
+                String error = errors.get(key);
+                if (error == null) {
+                    error = failure != null ? failure : generic != null ? generic : "未获取到视频信息";
+                }
+                finish(batch, key, null, error);
+            }
+        }
+    }
+
+    /**
+     * 交出一个视频的结果，同时结束它在视频信息缓存中的登记：成功时写入缓存，失败时等待它的请求收到同样的错误
+     */
+    private void finish(Batch batch, String key, Map<String, Object> info, String error) {
+        CompletableFuture<Map<String, Object>> claim = batch.claims.remove(key);
+        if (claim != null) {
+            if (info != null) {
+                videoInfoCache.complete(key, claim, info);
+            } else {
+                videoInfoCache.fail(key, claim, new RuntimeException("获取视频信息失败: " + error));
+            }
+        }
+        batch.results.add(new Item(key, info, error));
+    }
+
+    /**
+     * 找到yt-dlp输出的视频对应的链接：先按视频ID，再按原始链接
+     */
+    private static String matchKey(VideoMetadata metadata, Map<String, String> unresolved) {
+        if (metadata.getId() != null && unresolved.containsKey(metadata.getId())) {
+            return metadata.getId();
+        }
+        if (metadata.getOriginalUrl() != null) {
+            for (Map.Entry<String, String> entry : unresolved.entrySet()) {
+                if (entry.getValue().equals(metadata.getOriginalUrl())) {
+                    return entry.getKey();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 一次批量请求的共享状态
+     */
+    private static class Batch {
+        private final BlockingQueue<Item> results = new LinkedBlockingQueue<>();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final Set<Process> processes = ConcurrentHashMap.newKeySet();
+        // 本批次在视频信息缓存中登记、尚未结束的视频
+        private final Map<String, CompletableFuture<Map<String, Object>>> claims = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * 一个视频的解析结果
+     */
+    private static class Item {
+        private final String key;
+        private final Map<String, Object> info;
+        private final String error;
+
+        Item(String key, Map<String, Object> info, String error) {
+            this.key = key;
+            this.info = info;
+            this.error = error;
+        }
+    }
+}
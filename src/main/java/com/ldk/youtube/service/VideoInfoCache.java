@@ -0,0 +1,306 @@
+package com.ldk.youtube.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 视频信息缓存
+ * 内存中按视频ID做TTL+LRU缓存，可选磁盘二级缓存；同一视频的并发请求只执行一次yt-dlp解析
+ */
+@Component
+public class VideoInfoCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoInfoCache.class);
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<Map<String, Object>>() {};
+
+    // 内存缓存最大条目数
+    @Value("${youtube.video-info.cache.max-entries:500}")
+    private int maxEntries;
+
+    // 缓存有效期（秒）
+    @Value("${youtube.video-info.cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    // 磁盘缓存目录，为空时不启用
+    @Value("${youtube.video-info.cache.disk-dir:}")
+    private String diskDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 按访问顺序排列的LRU缓存，访问需加锁
+    private Map<String, CacheEntry> entries;
+
+    // 正在解析中的请求，用于合并并发请求
+    private final ConcurrentHashMap<String, CompletableFuture<Map<String, Object>>> inFlight = new ConcurrentHashMap<>();
+
+    private Path diskPath;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @PostConstruct
+    public void init() throws IOException {
+        entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        if (diskDir != null && !diskDir.trim().isEmpty()) {
+            diskPath = Paths.get(diskDir.trim());
+            Files.createDirectories(diskPath);
+            logger.info("视频信息磁盘缓存目录: {}", diskPath.toAbsolutePath());
+        }
+    }
+
+    /**
+     * 获取视频信息，缓存未命中时调用loader解析
+     * @param key 缓存键（视频ID）
+     * @param loader 实际解析视频信息的方法
+     * @return 视频信息
+     */
+    public Map<String, Object> get(String key, Callable<Map<String, Object>> loader) throws Exception {
+        Map<String, Object> cached = getFromMemory(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        CompletableFuture<Map<String, Object>> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            // 已有相同视频的解析在进行中，等待其结果
+            coalesced.incrementAndGet();
+            return await(existing);
+        }
+
+        try {
+            // 再检查一次，避免刚好错过上一次解析结果写入缓存
+            Map<String, Object> value = getFromMemory(key);
+            if (value != null) {
+                hits.incrementAndGet();
+                future.complete(value);
+                return value;
+            }
+            value = getFromDisk(key);
+            if (value != null) {
+                diskHits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                value = loader.call();
+                writeToDisk(key, value);
+            }
+            putToMemory(key, value);
+            future.complete(value);
+            return value;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * 只读取内存缓存，未命中时不解析，也不计入统计
+     * @param key 缓存键（视频ID）
+     * @return 视频信息，未缓存或已过期时返回null
+     */
+    public Map<String, Object> peek(String key) {
+        return getFromMemory(key);
+    }
+
+    /**
+     * 依次读取内存缓存和磁盘缓存，未命中时不解析
+     * 用于批量获取：未命中的视频由调用方通过 {@link #claim} 登记，统一解析后通过 {@link #complete} 写入
+     * @param key 缓存键（视频ID）
+     * @return 视频信息，未缓存时返回null
+     */
+    public Map<String, Object> lookup(String key) {
+        Map<String, Object> value = getFromMemory(key);
+        if (value != null) {
+            hits.incrementAndGet();
+            return value;
+        }
+        value = getFromDisk(key);
+        if (value != null) {
+            diskHits.incrementAndGet();
+            putToMemory(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * 登记由调用方自行解析的视频，与 {@link #get} 共用进行中的解析，相同视频不会同时启动两个yt-dlp
+     * 登记成功后必须调用 {@link #complete} 或 {@link #fail} 结束，否则等待该视频的请求不会返回
+     * @param key 缓存键（视频ID）
+     * @param claim 登记使用的future
+     * @return 已有相同视频的解析在进行中（或刚写入缓存）时返回它的结果，登记成功时返回null
+     */
+    public CompletableFuture<Map<String, Object>> claim(String key, CompletableFuture<Map<String, Object>> claim) {
+        CompletableFuture<Map<String, Object>> existing = inFlight.putIfAbsent(key, claim);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing;
+        }
+        // 再检查一次，避免刚好错过上一次解析结果写入缓存
+        Map<String, Object> value = getFromMemory(key);
+        if (value != null) {
+            hits.incrementAndGet();
+            complete(key, claim, value);
+            return claim;
+        }
+        return null;
+    }
+
+    /**
+     * 写入调用方解析的视频信息，结束 {@link #claim} 的登记
+     * @param key 缓存键（视频ID）
+     * @param claim 登记时使用的future
+     * @param value 视频信息
+     */
+    public void complete(String key, CompletableFuture<Map<String, Object>> claim, Map<String, Object> value) {
+        writeToDisk(key, value);
+        putToMemory(key, value);
+        claim.complete(value);
+        inFlight.remove(key, claim);
+    }
+
+    /**
+     * 调用方解析失败，结束 {@link #claim} 的登记，等待该视频的请求收到同样的异常
+     */
+    public void fail(String key, CompletableFuture<Map<String, Object>> claim, Exception error) {
+        claim.completeExceptionally(error);
+        inFlight.remove(key, claim);
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (this) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("ttlSeconds", ttlSeconds);
+        stats.put("hits", hits.get());
+        stats.put("diskHits", diskHits.get());
+        stats.put("misses", misses.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("evictions", evictions.get());
+        stats.put("inFlight", inFlight.size());
+        stats.put("diskEnabled", diskPath != null);
+        return stats;
+    }
+
+    private synchronized Map<String, Object> getFromMemory(String key) {
+        CacheEntry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private synchronized void putToMemory(String key, Map<String, Object> value) {
+        entries.put(key, new CacheEntry(value, System.currentTimeMillis() + ttlSeconds * 1000));
+    }
+
+    private Map<String, Object> getFromDisk(String key) {
+        if (diskPath == null) {
+            return null;
+        }
+        File file = diskFile(key);
+        if (!file.isFile() || System.currentTimeMillis() - file.lastModified() > ttlSeconds * 1000) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(file, MAP_TYPE);
+        } catch (IOException e) {
+            logger.warn("读取视频信息磁盘缓存失败: {} ({})", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Map<String, Object> value) {
+        if (diskPath == null) {
+            return;
+        }
+        File file = diskFile(key);
+        try {
+            // 先写临时文件再替换，避免读到写了一半的文件
+            Path temp = Files.createTempFile(diskPath, "video-info", ".tmp");
+            objectMapper.writeValue(temp.toFile(), value);
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("写入视频信息磁盘缓存失败: {} ({})", file, e.getMessage());
+        }
+    }
+
+    private File diskFile(String key) {
+        String name = key.matches("[A-Za-z0-9_-]{1,64}")
+                ? key
+                : DigestUtils.md5DigestAsHex(key.getBytes(StandardCharsets.UTF_8));
+        return diskPath.resolve(name + ".json").toFile();
+    }
+
+    private static Map<String, Object> await(CompletableFuture<Map<String, Object>> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static class CacheEntry {
+        private final Map<String, Object> value;
+        private final long expiresAt;
+
+        CacheEntry(Map<String, Object> value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() > expiresAt;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.ldk.youtube.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * yt-dlp -j输出中用到的视频信息
+ * 用JsonParser流式读取，只取用到的字段，fragments、http_headers等其他字段直接跳过，不构建JSON树；
+ * DASH/HLS视频的输出可达数MB，大部分是各格式的分片列表。
+ */
+public class VideoMetadata {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private String id;
+    private String title;
+    private String uploader;
+    private long durationSeconds = -1;
+    private String uploadDate;
+    private String thumbnail;
+    private String originalUrl;
+    private final List<Format> formats = new ArrayList<>();
+
+    /**
+     * 从yt-dlp的标准输出读取，读完第一个JSON对象为止，不关闭输入流
+     */
+    public static VideoMetadata read(InputStream in) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            parser.nextToken();
+            return read(parser);
+        }
+    }
+
+    /**
+     * 从JSON字符串读取
+     */
+    public static VideoMetadata parse(String json) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            parser.nextToken();
+            return read(parser);
+        }
+    }
+
+    /**
+     * 从当前位于对象开始处的解析器读取，读完后解析器位于对象结束处
+     * 用于视频信息嵌在其他JSON中的情况，如常驻工作进程的响应
+     */
+    static VideoMetadata read(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("视频信息不是JSON对象");
+        }
+        VideoMetadata metadata = new VideoMetadata();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "id":
+                    metadata.id = text(parser, value);
+                    break;
+                case "title":
+                    metadata.title = text(parser, value);
+                    break;
+                case "uploader":
+                    metadata.uploader = text(parser, value);
+                    break;
+                case "duration":
+                    metadata.durationSeconds = value.isNumeric() ? parser.getValueAsLong() : -1;
+                    break;
+                case "upload_date":
+                    metadata.uploadDate = text(parser, value);
+                    break;
+                case "thumbnail":
+                    metadata.thumbnail = text(parser, value);
+                    break;
+                case "original_url":
+                    metadata.originalUrl = text(parser, value);
+                    break;
+                case "formats":
+                    if (value == JsonToken.START_ARRAY) {
+                        readFormats(parser, metadata.formats);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                default:
+                    // 其他字段（含嵌套的对象和数组）整体跳过
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        return metadata;
+    }
+
+    private static void readFormats(JsonParser parser, List<Format> formats) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            Format format = new Format();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "format_id":
+                        format.formatId = text(parser, value);
+                        break;
+                    case "height":
+                        format.height = value.isNumeric() ? parser.getValueAsInt() : null;
+                        break;
+                    case "ext":
+                        format.ext = text(parser, value);
+                        break;
+                    case "filesize":
+                        format.filesize = value.isNumeric() ? parser.getValueAsLong() : null;
+                        break;
+                    case "fps":
+                        format.fps = text(parser, value);
+                        break;
+                    case "asr":
+                        format.asr = text(parser, value);
+                        break;
+                    case "vcodec":
+                        format.vcodec = text(parser, value);
+                        break;
+                    case "acodec":
+                        format.acodec = text(parser, value);
+                        break;
+                    default:
+                        // fragments等大数组在这里跳过，不逐个创建对象
+                        parser.skipChildren();
+                        break;
+                }
+            }
+            formats.add(format);
+        }
+    }
+
+    /**
+     * 标量值的文本，null和对象/数组返回null
+     */
+    private static String text(JsonParser parser, JsonToken value) throws IOException {
+        if (value.isScalarValue() && value != JsonToken.VALUE_NULL) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getUploader() {
+        return uploader;
+    }
+
+    /**
+     * 时长（秒），未知时为-1
+     */
+    public long getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /**
+     * 上传日期，格式yyyyMMdd
+     */
+    public String getUploadDate() {
+        return uploadDate;
+    }
+
+    public String getThumbnail() {
+        return thumbnail;
+    }
+
+    /**
+     * 传给yt-dlp的原始链接，一次解析多个链接时用于对应结果
+     */
+    public String getOriginalUrl() {
+        return originalUrl;
+    }
+
+    public List<Format> getFormats() {
+        return Collections.unmodifiableList(formats);
+    }
+
+    /**
+     * 一个可下载格式
+     */
+    public static class Format {
+        private String formatId;
+        private Integer height;
+        private String ext;
+        private Long filesize;
+        private String fps;
+        private String asr;
+        private String vcodec;
+        private String acodec;
+
+        public String getFormatId() {
+            return formatId;
+        }
+
+        /**
+         * 视频高度，纯音频或未知时为null
+         */
+        public Integer getHeight() {
+            return height;
+        }
+
+        public String getExt() {
+            return ext;
+        }
+
+        /**
+         * 文件大小（字节），未知时为null
+         */
+        public Long getFilesize() {
+            return filesize;
+        }
+
+        public String getFps() {
+            return fps;
+        }
+
+        public String getAsr() {
+            return asr;
+        }
+
+        public String getVcodec() {
+            return vcodec;
+        }
+
+        public String getAcodec() {
+            return acodec;
+        }
+
+        /**
+         * 是否包含视频流
+         */
+        public boolean hasVideo() {
+            return vcodec != null && !"none".equals(vcodec);
+        }
+    }
+}
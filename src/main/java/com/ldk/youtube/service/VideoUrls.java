@@ -0,0 +1,52 @@
+package com.ldk.youtube.service;
+
+/**
+ * YouTube视频链接工具
+ */
+public final class VideoUrls {
+
+    private VideoUrls() {
+    }
+
+    /**
+     * 从YouTube链接中提取视频ID
+     * 支持 watch?v=、youtu.be/、/shorts/ 和 /embed/ 形式的链接
+     * @param url 视频链接
+     * @return 视频ID，无法识别时返回null
+     */
+    public static String extractVideoId(String url) {
+        if (url == null) {
+            return null;
+        }
+
+        String videoId = null;
+        for (String marker : new String[]{"v=", "youtu.be/", "/shorts/", "/embed/"}) {
+            int index = url.indexOf(marker);
+            if (index >= 0) {
+                videoId = url.substring(index + marker.length());
+                break;
+            }
+        }
+
+        if (videoId == null) {
+            return null;
+        }
+
+        // 去掉后续的参数、锚点和路径
+        for (String separator : new String[]{"&", "?", "#", "/"}) {
+            int index = videoId.indexOf(separator);
+            if (index >= 0) {
+                videoId = videoId.substring(0, index);
+            }
+        }
+        return videoId.isEmpty() ? null : videoId;
+    }
+
+    /**
+     * 获取用于缓存和去重的视频标识：能识别出视频ID时使用视频ID，否则使用去除首尾空白的原始链接
+     */
+    public static String cacheKey(String url) {
+        String videoId = extractVideoId(url);
+        return videoId != null ? videoId : url.trim();
+    }
+}
@@ -1,141 +1,618 @@
 package com.ldk.youtube.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.AsyncResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
-import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.stream.Collectors;
+import java.util.regex.Pattern;
 
 @Service
 public class YoutubeDownloadService {
 
     private static final Logger logger = LoggerFactory.getLogger(YoutubeDownloadService.class);
     
-    // 存储下载任务状态的并发Map
-    private final ConcurrentHashMap<String, DownloadStatus> downloadTasks = new ConcurrentHashMap<>();
+    // 正在下载中的任务，按产物索引键（视频ID+格式选择器）登记，用于合并相同的下载请求
+    private final ConcurrentHashMap<String, DownloadStatus> inFlightDownloads = new ConcurrentHashMap<>();
+    
+    // 正在运行的yt-dlp进程
+    private final ConcurrentHashMap<String, Process> runningProcesses = new ConcurrentHashMap<>();
     
     // 临时文件目录
     private static final String TEMP_DIR = System.getProperty("java.io.tmpdir");
     
-    // 下载目录
-    private static final String DOWNLOAD_DIR = "/Users/lidakai/Downloads";
+    // yt-dlp写出最终文件路径的记录文件名
+    private static final String FILEPATH_RECORD_NAME = ".filepath";
+    
+    // yt-dlp下载时的网络相关参数，边下边传的下载也使用
+    static final List<String> NETWORK_OPTIONS = Collections.unmodifiableList(Arrays.asList(
+            "--socket-timeout", "30",
+            "--retries", "10",
+            "--user-agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36",
+            "--cookies-from-browser", "chrome",
+            "--no-check-certificate",
+            "--geo-bypass"
+    ));
+    
+    // 启动时恢复的任务在状态日志中没有客户端标识时使用的标识
+    private static final String RECOVERED_CLIENT_ID = "recovered";
+    
+    // 只要音频的质量参数前缀，如audio-m4a、audio-mp3、audio-opus
+    public static final String AUDIO_QUALITY_PREFIX = "audio-";
+    
+    // 进程退出后等待输出读取完毕的最长时间（秒）
+    private static final int OUTPUT_DRAIN_TIMEOUT_SECONDS = 10;
+    
+    // 下载前解析实际选中格式的最长时间（秒）
+    private static final int FORMAT_RESOLVE_TIMEOUT_SECONDS = 60;
+    
+    // yt-dlp --print format_id的输出：单个格式，或视频+音频两个格式
+    private static final Pattern SELECTED_FORMAT = Pattern.compile("[A-Za-z0-9_-]+(\\+[A-Za-z0-9_-]+)?");
+    
+    @Autowired
+    private VideoInfoCache videoInfoCache;
+    
+    @Autowired
+    private ToolchainRegistry toolchainRegistry;
+    
+    @Autowired
+    private ArtifactStore artifactStore;
+    
+    @Autowired
+    private TaskJournal taskJournal;
+    
+    // 下载任务状态，共享存储时其他节点也能查到任务归属
+    @Autowired
+    private TaskStore taskStore;
+    
+    @Autowired
+    private ClusterNode clusterNode;
+    
+    @Autowired
+    private ProcessOutputPump processOutputPump;
+    
+    @Autowired
+    private DownloadMetrics downloadMetrics;
+    
+    @Autowired
+    private BandwidthScheduler bandwidthScheduler;
+    
+    @Autowired
+    private DownloadScheduler downloadScheduler;
+    
+    @Autowired
+    private DownloadWatchdog downloadWatchdog;
     
-    // 下载超时时间（分钟）
-    private static final int DOWNLOAD_TIMEOUT_MINUTES = 10;
+    @Autowired
+    private StorageManager storageManager;
+    
+    @Autowired
+    private PostProcessor postProcessor;
+    
+    @Autowired
+    private YtDlpWorkerPool ytDlpWorkerPool;
+    
+    // 已完成任务在最后一次访问后保留的时间（分钟）
+    @Value("${youtube.tasks.completed-ttl-minutes:60}")
+    private long completedTtlMinutes;
+    
+    // 失败任务保留的时间（分钟）
+    @Value("${youtube.tasks.failed-ttl-minutes:10}")
+    private long failedTtlMinutes;
+    
+    // 未完成的任务超过该时间（分钟）没有客户端访问时视为已放弃，结束下载并清理
+    @Value("${youtube.tasks.abandoned-ttl-minutes:360}")
+    private long abandonedTtlMinutes;
+    
+    // 任务回收检查间隔（秒）
+    @Value("${youtube.tasks.eviction-interval-seconds:60}")
+    private long evictionIntervalSeconds;
+    
+    private ScheduledExecutorService evictionScheduler;
+    
+    // 服务正在停止
+    private volatile boolean shuttingDown;
+    
+    // 任务完整日志目录，为空时只保留内存中的最近日志
+    @Value("${youtube.task-log.dir:${java.io.tmpdir}/youtube-download-logs}")
+    private String taskLogDir;
+    
+    // 每个任务在内存中保留的日志行数
+    @Value("${youtube.task-log.memory-lines:200}")
+    private int taskLogMemoryLines;
+    
+    private Path taskLogPath;
+    
+    // 队列已满时建议客户端重试的等待时间（秒）
+    @Value("${youtube.download.retry-after-seconds:30}")
+    private int retryAfterSeconds;
+    
+    // 每个任务并行下载的分片数（DASH/HLS），1表示不并行
+    @Value("${youtube.download.concurrent-fragments:4}")
+    private int concurrentFragments;
+    
+    @PostConstruct
+    public void init() throws IOException {
+        downloadMetrics.registerGauge("youtube.tasks.registered", "登记中的下载任务数", taskStore::size);
+        downloadMetrics.registerMapSize("youtube.processes.running", "运行中的yt-dlp下载进程数", runningProcesses);
+        
+        if (taskLogDir != null && !taskLogDir.trim().isEmpty()) {
+            taskLogPath = Files.createDirectories(Paths.get(taskLogDir.trim()));
+            logger.info("任务日志目录: {}", taskLogPath.toAbsolutePath());
+        }
+        
+        evictionScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "download-task-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictionScheduler.scheduleWithFixedDelay(this::evictTasks, evictionIntervalSeconds, evictionIntervalSeconds,
+                TimeUnit.SECONDS);
+    }
+    
+    /**
+     * 停止时结束正在运行的yt-dlp进程，任务状态保留在状态日志中，下次启动时继续下载
+     */
+    @PreDestroy
+    public void shutdown() {
+        shuttingDown = true;
+        evictionScheduler.shutdownNow();
+        for (Map.Entry<String, Process> entry : runningProcesses.entrySet()) {
+            logger.info("停止下载进程 [{}]，下次启动时继续", entry.getKey());
+            ProcessSupport.destroyTree(entry.getValue());
+        }
+    }
+    
+    /**
+     * 启动完成后根据状态日志恢复任务：已完成和失败的任务恢复状态，未完成的任务重新下载（从临时目录中的部分文件继续）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverTasks() {
+        Set<String> resumed = new HashSet<>();
+        for (TaskJournal.Record record : taskJournal.getLatestRecords()) {
+            String taskId = record.getTaskId();
+            DownloadStatus status = new DownloadStatus(taskId, record.getUrl(), record.getQuality(), createTaskLog(taskId));
+            
+            if ("completed".equals(record.getState())) {
+                if (record.getOutputFile() == null || !new File(record.getOutputFile()).isFile()) {
+                    taskJournal.recordRemoved(taskId);
+                    continue;
+                }
+                status.setOutputFile(record.getOutputFile());
+                status.setProgress(100.0f);
+                status.setStatus("completed");
+                taskStore.put(status);
+            } else if ("failed".equals(record.getState())) {
+                status.fail(record.getMessage() != null ? record.getMessage() : "下载失败");
+                taskStore.put(status);
+            } else {
+                // 上次运行遗留的yt-dlp进程会和恢复的下载写同一个临时目录，先结束它
+                if (record.getPid() != null && ProcessSupport.destroyTree(record.getPid(), ToolchainRegistry.YT_DLP)) {
+                    logger.info("结束上次运行遗留的下载进程 [{}]: pid={}", taskId, record.getPid());
+                }
+                String artifactKey = ArtifactStore.artifactKey(VideoUrls.extractVideoId(record.getUrl()),
+                        getFormatSelector(record.getQuality()));
+                // 重启前已接受的任务按原客户端和优先级排队，不受排队上限限制，临时目录中的部分文件用于继续下载；
+                // 旧版本的状态日志没有这两项
+                schedule(status, artifactKey,
+                        record.getClientId() != null ? record.getClientId() : RECOVERED_CLIENT_ID,
+                        record.getPriority() != null ? record.getPriority() : DownloadScheduler.PRIORITY_INTERACTIVE,
+                        true);
+                resumed.add(taskId);
+            }
+        }
+        logger.info("恢复下载任务: 共 {} 个，重新开始下载 {} 个", taskStore.size(), resumed.size());
+        
+        int purged = artifactStore.purgeStagingDirs(resumed);
+        if (purged > 0) {
+            logger.info("清理上次运行遗留的临时目录: {} 个", purged);
+        }
+    }
+    
+    private boolean isInterruptedByShutdown(DownloadStatus status) {
+        return shuttingDown && !status.isFinished();
+    }
+    
+    /**
+     * 回收过期任务：已完成、失败和已放弃的任务分别按各自的保留时间清理
+     */
+    private void evictTasks() {
+        long now = System.currentTimeMillis();
+        for (DownloadStatus status : taskStore.getAll()) {
+            try {
+                String state = status.getStatus();
+                if ("completed".equals(state)) {
+                    if (now - Math.max(status.getFinishedAt(), status.getLastAccessAt()) > TimeUnit.MINUTES.toMillis(completedTtlMinutes)) {
+                        logger.info("回收已完成任务 [{}]", status.getTaskId());
+                        cleanupTask(status.getTaskId());
+                    }
+                } else if ("failed".equals(state)) {
+                    if (now - status.getFinishedAt() > TimeUnit.MINUTES.toMillis(failedTtlMinutes)) {
+                        logger.info("回收失败任务 [{}]", status.getTaskId());
+                        cleanupTask(status.getTaskId());
+                    }
+                } else if (now - lastAccessOf(status) > TimeUnit.MINUTES.toMillis(abandonedTtlMinutes)) {
+                    logger.warn("任务 [{}] 长时间无人访问，视为已放弃", status.getTaskId());
+                    // 与取消相同：移出队列或结束下载，共享的下载只退出共享
+                    endTask(status, DownloadStatus.ABORT_ABANDONED);
+                    cleanupTask(status.getTaskId());
+                }
+            } catch (Exception e) {
+                logger.warn("回收任务 [{}] 失败: {}", status.getTaskId(), e.getMessage());
+            }
+        }
+    }
     
     /**
-     * 异步下载YouTube视频
+     * 任务及共享其下载结果的任务中最近一次被客户端访问的时间
+     */
+    private long lastAccessOf(DownloadStatus status) {
+        long lastAccess = status.getLastAccessAt();
+        for (DownloadStatus follower : status.getFollowers()) {
+            lastAccess = Math.max(lastAccess, follower.getLastAccessAt());
+        }
+        return lastAccess;
+    }
+    
+    /**
+     * 提交YouTube视频下载任务
+     * 只登记任务并放入下载线程池队列，立即返回任务ID，不等待下载完成
      * @param youtubeUrl YouTube视频URL
      * @param quality 视频质量（如：best, 720p, 1080p等）
+     * @param clientId 提交任务的客户端标识，用于在客户端之间轮流调度
+     * @param priority 优先级，如 {@link DownloadScheduler#PRIORITY_INTERACTIVE}
      * @return 下载任务ID
+     * @throws DownloadRejectedException 下载队列已满时抛出
+     */
+    public String submitDownload(String youtubeUrl, String quality, String clientId, int priority) {
+        String taskId = clusterNode.newId();
+        DownloadStatus status = new DownloadStatus(taskId, youtubeUrl, quality, createTaskLog(taskId));
+        String artifactKey = ArtifactStore.artifactKey(VideoUrls.extractVideoId(youtubeUrl), getFormatSelector(quality));
+        
+        // 已经下载过相同视频和清晰度，直接使用已有文件
+        ArtifactStore.Artifact artifact = artifactStore.lookup(artifactKey);
+        if (artifact != null) {
+            status.setOutputFile(artifact.getPath());
+            status.setProgress(100.0f);
+            status.setStatus("completed");
+            taskStore.put(status);
+            recordTask(status);
+            downloadMetrics.recordOutcome(DownloadMetrics.OUTCOME_REUSED, DownloadMetrics.ERROR_NONE);
+            logger.info("下载任务 [{}] 直接使用已有文件: {}", taskId, artifact.getPath());
+            return taskId;
+        }
+        
+        schedule(status, artifactKey, clientId, priority, false);
+        logger.info("下载任务已提交 [{}]: URL={}, 质量={}, 客户端={}, 当前排队数={}", taskId, youtubeUrl, quality, clientId, getQueueSize());
+        return taskId;
+    }
+    
+    /**
+     * 登记任务并交给下载调度器，相同视频和清晰度正在下载时共享其下载结果
+     * @param status 下载任务状态
+     * @param artifactKey 下载产物索引键，无法识别视频ID时为null
+     * @param clientId 客户端标识
+     * @param priority 优先级
+     * @param recovered 重启后恢复的任务，不受排队上限限制
+     * @throws DownloadRejectedException 下载队列已满时抛出
      */
-    @Async
-    public ListenableFuture<String> downloadVideo(String youtubeUrl, String quality) {
-        String taskId = UUID.randomUUID().toString();
-        DownloadStatus status = new DownloadStatus(taskId, youtubeUrl, quality);
-        downloadTasks.put(taskId, status);
+    private void schedule(DownloadStatus status, String artifactKey, String clientId, int priority,
+                          boolean recovered) {
+        String taskId = status.getTaskId();
+        status.setScheduling(clientId, priority);
+        taskStore.put(status);
+        
+        // 相同视频和清晰度正在下载中，共享其下载结果
+        if (artifactKey != null) {
+            DownloadStatus leader;
+            while ((leader = inFlightDownloads.putIfAbsent(artifactKey, status)) != null) {
+                if (leader.attachFollower(status)) {
+                    recordTask(status);
+                    logger.info("下载任务 [{}] 共享进行中的下载任务 [{}]", taskId, leader.getTaskId());
+                    return;
+                }
+                // 进行中的下载已被取消或终止，不再共享
+                inFlightDownloads.remove(artifactKey, leader);
+            }
+        }
+        
+        // 已解析过视频信息时按时长调度，短视频优先
+        long durationSeconds = cachedDurationSeconds(status.getYoutubeUrl());
+        if (!downloadScheduler.submit(taskId, clientId, priority, durationSeconds,
+                () -> executeDownload(status, artifactKey), recovered)) {
+            // 已共享本任务的请求也一并失败
+            status.fail("下载队列已满，请稍后重试");
+            taskStore.remove(taskId);
+            if (artifactKey != null) {
+                inFlightDownloads.remove(artifactKey, status);
+            }
+            int queueSize = getQueueSize();
+            downloadMetrics.recordOutcome(DownloadMetrics.OUTCOME_REJECTED, DownloadMetrics.ERROR_QUEUE_FULL);
+            logger.warn("下载队列已满，拒绝任务 [{}]: URL={}, 当前排队数={}", taskId, status.getYoutubeUrl(), queueSize);
+            throw new DownloadRejectedException(queueSize, retryAfterSeconds);
+        }
+        recordTask(status);
+    }
+    
+    /**
+     * 记录任务状态变化：写入状态日志用于重启后恢复，并更新任务存储中的快照
+     */
+    private void recordTask(DownloadStatus status) {
+        taskJournal.record(status);
+        taskStore.update(status);
+    }
+    
+    /**
+     * 仍登记在任务存储中时才记录任务状态：已被回收的任务，以及取消后只为共享者继续运行的下载不再记录
+     */
+    private void recordIfStored(DownloadStatus status) {
+        if (taskStore.get(status.getTaskId()) == status) {
+            recordTask(status);
+        }
+    }
+    
+    /**
+     * 创建任务日志，内存中保留最近的日志，完整日志写入日志目录
+     */
+    private TaskLog createTaskLog(String taskId) {
+        File file = taskLogPath != null ? taskLogPath.resolve(taskId + ".log").toFile() : null;
+        return new TaskLog(file, Math.max(1, taskLogMemoryLines));
+    }
+    
+    /**
+     * 获取排队等待下载的任务数
+     */
+    public int getQueueSize() {
+        return downloadScheduler.getQueuedCount();
+    }
+    
+    /**
+     * 根据视频信息缓存中的格式大小估算下载文件大小，不触发解析
+     * 按指定的格式ID或清晰度查找，best取最大的格式；只统计视频格式，音频和合并所需空间由预留系数覆盖
+     * @return 预计字节数，未缓存或大小未知时返回-1
+     */
+    @SuppressWarnings("unchecked")
+    private long estimateDownloadBytes(String url, String quality) {
+        if (getAudioFormat(quality) != null) {
+            // 缓存中只有视频格式，音频按默认预留
+            return -1;
+        }
+        Map<String, Object> info = videoInfoCache.peek(VideoUrls.cacheKey(url));
+        Object formats = info != null ? info.get("formats") : null;
+        if (!(formats instanceof List)) {
+            return -1;
+        }
+        long estimate = -1;
+        for (Map<String, Object> format : (List<Map<String, Object>>) formats) {
+            Object size = format.get("contentLength");
+            if (!(size instanceof Number)) {
+                continue;
+            }
+            long bytes = ((Number) size).longValue();
+            if (quality.equals(format.get("itag")) || quality.equals(format.get("qualityLabel"))) {
+                return bytes;
+            }
+            estimate = Math.max(estimate, bytes);
+        }
+        // 找不到对应格式时按最大的格式估算
+        return estimate;
+    }
+    
+    /**
+     * 从视频信息缓存中读取视频时长，不触发解析
+     * @return 时长（秒），未缓存或未知时返回-1
+     */
+    private long cachedDurationSeconds(String url) {
+        Map<String, Object> info = videoInfoCache.peek(VideoUrls.cacheKey(url));
+        Object duration = info != null ? info.get("durationSeconds") : null;
+        return duration instanceof Number ? ((Number) duration).longValue() : -1;
+    }
+    
+    /**
+     * 在下载线程池中执行下载任务
+     * @param status 下载任务状态
+     * @param artifactKey 下载产物索引键，无法识别视频ID时为null
+     */
+    private void executeDownload(DownloadStatus status, String artifactKey) {
+        boolean handedOff = false;
+        try {
+            handedOff = runDownload(status, artifactKey);
+        } finally {
+            // 交给后处理线程池的任务由后处理完成后收尾
+            if (!handedOff) {
+                finishTask(status, artifactKey);
+            }
+        }
+    }
+    
+    /**
+     * 任务结束后的收尾：释放进程、带宽、看门狗和空间预留，记录结果
+     */
+    private void finishTask(DownloadStatus status, String artifactKey) {
+        runningProcesses.remove(status.getTaskId());
+        bandwidthScheduler.unregister(status.getTaskId());
+        downloadWatchdog.unwatch(status.getTaskId());
+        storageManager.release(status.getTaskId());
+        if (taskStore.get(status.getTaskId()) == null) {
+            // 任务已被回收，下载期间写出的日志不再保留
+            status.getLog().delete();
+        } else {
+            status.getLog().close();
+        }
+        // 服务停止导致的中断不记录结果，下次启动时继续下载；已被回收或已退出共享下载的任务不再记录
+        if (!isInterruptedByShutdown(status)) {
+            recordIfStored(status);
+            for (DownloadStatus follower : status.getFollowers()) {
+                recordIfStored(follower);
+            }
+        }
+        if (artifactKey != null) {
+            inFlightDownloads.remove(artifactKey, status);
+        }
+    }
+    
+    /**
+     * 运行yt-dlp下载，需要合并或转码时交给后处理线程池
+     * @return 已交给后处理线程池时返回true，由后处理完成后收尾
+     */
+    private boolean runDownload(DownloadStatus status, String artifactKey) {
+        String taskId = status.getTaskId();
+        String youtubeUrl = status.getYoutubeUrl();
+        String quality = status.getQuality();
         
         logger.info("开始下载任务 [{}]: URL={}, 质量={}", taskId, youtubeUrl, quality);
         
+        Path stagingDir = null;
+        boolean handedOff = false;
         try {
-            // 检查系统环境信息
-            logSystemEnvironment();
+            // 排队期间已被取消
+            if (status.getAbortReason() != null) {
+                failAborted(status);
+                return false;
+            }
             
-            // 检查yt-dlp命令是否可用
-            if (!isYtDlpAvailable()) {
-                status.setStatus("failed");
+            // 检查yt-dlp命令是否可用（读取启动时探测的结果）
+            if (!toolchainRegistry.isAvailable(ToolchainRegistry.YT_DLP)) {
                 String errorMsg = "yt-dlp命令不可用，请确保系统中已安装yt-dlp。安装方法：brew install yt-dlp 或 pip install yt-dlp";
-                status.addError(errorMsg);
+                status.fail(errorMsg);
+                downloadMetrics.recordFailure(DownloadMetrics.ERROR_TOOLCHAIN);
                 logger.error("下载任务 [{}] 失败: {}", taskId, errorMsg);
-                return new AsyncResult<>("[ERROR] " + errorMsg);
+                return false;
             }
             
-            // 创建下载目录
-            Path downloadOutputDir = Paths.get(DOWNLOAD_DIR, "youtube-downloads");
-            Files.createDirectories(downloadOutputDir);
-            logger.debug("创建下载目录: {}", downloadOutputDir);
+            // 每个任务使用独立的临时目录，完成后再移动到下载目录
+            stagingDir = artifactStore.createStagingDir(taskId);
+            Path filepathRecord = stagingDir.resolve(FILEPATH_RECORD_NAME);
             
-            // 根据quality参数构建格式选择器
+            // 按预计大小预留磁盘空间，空间不足时不开始下载
+            if (!storageManager.reserve(taskId, estimateDownloadBytes(youtubeUrl, quality), stagingDir)) {
+                status.fail("磁盘空间不足，无法开始下载");
+                downloadMetrics.recordFailure(DownloadMetrics.ERROR_NO_SPACE);
+                logger.error("下载任务 [{}] 失败：磁盘空间不足", taskId);
+                return false;
+            }
+            
+            // 根据quality参数构建格式选择器，再确定实际下载的格式
             String formatSelector = getFormatSelector(quality);
-            logger.debug("使用格式选择器: {}", formatSelector);
+            String downloadSelector = resolveDownloadSelector(status, formatSelector);
+            logger.debug("使用格式选择器: {}，实际下载: {}", formatSelector, downloadSelector);
+            
+            // 文件名中带上视频ID和格式选择器摘要，不同清晰度的同一视频不会互相覆盖
+            String fileTag = DigestUtils.md5DigestAsHex(formatSelector.getBytes(StandardCharsets.UTF_8)).substring(0, 8);
+            // 分开下载音视频时再带上格式ID，两个文件不会重名
+            String outputTemplate = "%(title)s [%(id)s] " + fileTag
+                    + (downloadSelector.contains(",") ? ".%(format_id)s" : "") + ".%(ext)s";
             
             // 构建yt-dlp命令
-            ProcessBuilder processBuilder = new ProcessBuilder(
-                    "yt-dlp",
-                    "-f", formatSelector,
-                    "--merge-output-format", "mp4",
-                    "--socket-timeout", "30",
-                    "--retries", "10",
-                    "--user-agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36",
-                    "--cookies-from-browser", "chrome",
-                    "--no-check-certificate",
-                    "--geo-bypass",
+            List<String> command = new ArrayList<>(Arrays.asList(
+                    toolchainRegistry.getCommand(ToolchainRegistry.YT_DLP),
+                    "-f", downloadSelector,
+                    "--merge-output-format", "mp4"
+            ));
+            command.addAll(NETWORK_OPTIONS);
+            command.addAll(Arrays.asList(
                     "--verbose",
-                    "-o", downloadOutputDir.resolve("%(title)s.%(ext)s").toString(),
-                    youtubeUrl
-            );
+                    // 按固定格式输出下载和后处理进度，每次更新单独一行
+                    "--newline",
+                    "--progress-template", ProgressLineParser.DOWNLOAD_TEMPLATE,
+                    "--progress-template", ProgressLineParser.POSTPROCESS_TEMPLATE,
+                    // 重启恢复时从临时目录中的.part文件继续下载
+                    "--continue",
+                    // 由yt-dlp写出后处理完成后的最终文件路径，不再扫描目录
+                    "--print-to-file", "after_move:filepath", filepathRecord.toString(),
+                    "--concurrent-fragments", String.valueOf(Math.max(1, concurrentFragments)),
+                    "-o", stagingDir.resolve(outputTemplate).toString()
+            ));
+            if (bandwidthScheduler.isEnabled()) {
+                // 单个进程不超过总速率，多个任务之间的分配由带宽调度器完成
+                command.add("--limit-rate");
+                command.add(String.valueOf(bandwidthScheduler.getProcessRateLimit()));
+            }
+            command.add(youtubeUrl);
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
             
             logger.debug("执行命令: {}", String.join(" ", processBuilder.command()));
             
             // 启动进程
             Process process = processBuilder.start();
+            long processStartedAt = System.nanoTime();
+            runningProcesses.put(taskId, process);
+            // 进程启动期间收到取消请求时，取消方可能还没看到进程，这里补上结束
+            if (status.getAbortReason() != null) {
+                ProcessSupport.destroyTree(process);
+            }
+            downloadWatchdog.watch(status, process);
+            bandwidthScheduler.register(taskId, process);
             status.setStatus("downloading");
+            taskJournal.record(status, ProcessSupport.pid(process));
+            taskStore.update(status);
             logger.info("下载进程已启动 [{}]", taskId);
             
-            // 读取输出流
-            new Thread(() -> {
-                try {
-                    readStreamToStatus(process.getInputStream(), status, true);
-                } catch (IOException e) {
-                    status.addError("读取输出流错误: " + e.getMessage());
-                }
-            }).start();
+            // 输出流交给共享的读取器按行处理，不再为每个流单独创建线程
+            ProgressLineParser progressParser = new ProgressLineParser();
+            CompletableFuture<Void> outputDone = processOutputPump.pump(process, process.getInputStream(),
+                    line -> handleOutputLine(line, status, progressParser), taskId + " stdout");
+            CompletableFuture<Void> errorDone = processOutputPump.pump(process, process.getErrorStream(),
+                    line -> handleErrorLine(line, status), taskId + " stderr");
             
-            // 读取错误流
-            new Thread(() -> {
-                try {
-                    readStreamToStatus(process.getErrorStream(), status, false);
-                } catch (IOException e) {
-                    status.addError("读取错误流错误: " + e.getMessage());
-                }
-            }).start();
+            // 等待进程结束，停滞和超时由看门狗处理，取消时由取消请求结束进程
+            process.waitFor();
             
-            // 等待进程完成，设置超时
-            boolean completed = process.waitFor(DOWNLOAD_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            if (shuttingDown) {
+                logger.info("服务停止，下载任务 [{}] 中断，下次启动时继续", taskId);
+                return false;
+            }
             
-            if (!completed) {
-                process.destroyForcibly();
-                status.setStatus("failed");
-                status.addError("下载超时");
-                logger.error("下载任务 [{}] 超时", taskId);
-                return new AsyncResult<>("[ERROR] 下载超时");
+            if (status.getAbortReason() != null) {
+                awaitOutput(outputDone, status, "读取输出流错误: ");
+                awaitOutput(errorDone, status, "读取错误流错误: ");
+                failAborted(status);
+                return false;
             }
             
+            // 进程退出后等待输出读取完毕，错误分类需要完整的错误流
+            awaitOutput(outputDone, status, "读取输出流错误: ");
+            awaitOutput(errorDone, status, "读取错误流错误: ");
+            
             if (process.exitValue() != 0) {
-                status.setStatus("failed");
-                
                 // 检查是否有特定错误信息
                 String errorDetails = status.getError();
                 String userFriendlyMessage = "下载失败，退出码: " + process.exitValue();
+                String errorType = DownloadMetrics.ERROR_OTHER;
                 
                 // 根据错误信息提供更友好的提示
                 if (errorDetails.contains("HTTP Error 403") || errorDetails.contains("Forbidden")) {
@@ -143,69 +620,246 @@ public class YoutubeDownloadService {
                                           "1. 使用VPN或代理服务器\n" +
                                           "2. 确认视频在您的地区可以访问\n" +
                                           "3. 尝试其他视频或稍后再试";
+                    errorType = DownloadMetrics.ERROR_FORBIDDEN;
                 } else if (errorDetails.contains("unavailable") || errorDetails.contains("不可用")) {
                     userFriendlyMessage = "下载失败：视频不可用，可能已被删除或设为私有";
+                    errorType = DownloadMetrics.ERROR_UNAVAILABLE;
                 } else if (errorDetails.contains("copyright") || errorDetails.contains("版权")) {
                     userFriendlyMessage = "下载失败：视频可能受版权保护，无法下载";
+                    errorType = DownloadMetrics.ERROR_COPYRIGHT;
                 }
                 
-                status.addError(userFriendlyMessage);
+                status.fail(userFriendlyMessage);
+                downloadMetrics.recordFailure(errorType);
                 logger.error("下载任务 [{}] 失败，退出码: {}，详细信息: {}", taskId, process.exitValue(), userFriendlyMessage);
-                return new AsyncResult<>("[ERROR] " + userFriendlyMessage);
+                return false;
             }
             
-            // 查找下载的文件
-            File[] files = downloadOutputDir.toFile().listFiles((dir, name) -> name.endsWith(".mp4"));
-            if (files == null || files.length == 0) {
-                status.setStatus("failed");
-                status.addError("找不到下载的视频文件");
-                logger.error("下载任务 [{}] 失败：找不到下载的视频文件", taskId);
-                return new AsyncResult<>("[ERROR] 找不到下载的视频文件");
-            }
+            recordProcessPhases(status, processStartedAt);
             
-            // 检查文件大小
-            long fileSize = files[0].length();
-            if (fileSize < 1024) { // 小于1KB的文件可能是无效的
-                status.setStatus("failed");
-                status.addError("下载的视频文件过小，可能是无效文件: " + fileSize + " 字节");
-                logger.error("下载任务 [{}] 失败：文件过小 ({} 字节)", taskId, fileSize);
-                return new AsyncResult<>("[ERROR] 下载的视频文件过小，可能是无效文件");
+            // 查找下载的文件，分开下载音视频时依次为视频和音频
+            List<File> stagedFiles = findDownloadedFiles(stagingDir, filepathRecord);
+            if (stagedFiles.isEmpty()) {
+                status.fail("找不到下载的视频文件");
+                downloadMetrics.recordFailure(DownloadMetrics.ERROR_NO_FILE);
+                logger.error("下载任务 [{}] 失败：找不到下载的视频文件", taskId);
+                return false;
             }
             
-            // 设置下载完成状态
-            status.setStatus("completed");
-            // 确保进度为100%
-            status.setProgress(100.0f);
-            status.setOutputFile(files[0].getAbsolutePath());
-            
-            // 打印更详细的文件保存信息
-            String fileName = files[0].getName();
-            String absolutePath = files[0].getAbsolutePath();
-            String canonicalPath = files[0].getCanonicalPath();
-            
-            logger.info("下载任务 [{}] 完成:", taskId);
-            logger.info("  - 文件名称: {}", fileName);
-            logger.info("  - 文件大小: {:.2f} MB", fileSize / (1024.0 * 1024.0));
-            logger.info("  - 绝对路径: {}", absolutePath);
-            logger.info("  - 规范路径: {}", canonicalPath);
-            logger.info("  - 临时目录: {}", TEMP_DIR);
-            
-            // 检查文件是否可读
-            if (files[0].canRead()) {
-                logger.info("  - 文件可读: 是");
-            } else {
-                logger.warn("  - 文件可读: 否，可能无法正常访问");
+            // 合并和转码交给后处理线程池，下载线程立即释放给下一个下载任务
+            CompletableFuture<File> postprocessed = startPostprocess(status, stagedFiles, fileTag);
+            if (postprocessed != null) {
+                runningProcesses.remove(taskId);
+                bandwidthScheduler.unregister(taskId);
+                downloadWatchdog.unwatch(taskId);
+                Path dir = stagingDir;
+                handedOff = true;
+                logger.info("下载任务 [{}] 下载完成，等待后处理（排队 {} 个）", taskId, postProcessor.getQueuedCount());
+                postprocessed.whenComplete((file, error) -> {
+                    try {
+                        completePostprocess(status, artifactKey, file, error);
+                    } finally {
+                        if (!isInterruptedByShutdown(status)) {
+                            artifactStore.deleteStagingDir(dir);
+                        }
+                        finishTask(status, artifactKey);
+                    }
+                });
+                return true;
             }
             
-            return new AsyncResult<>(taskId);
+            completeDownload(status, artifactKey, stagedFiles.get(0));
+            return false;
             
         } catch (Exception e) {
-            status.setStatus("failed");
+            if (shuttingDown) {
+                logger.info("服务停止，下载任务 [{}] 中断，下次启动时继续", taskId);
+                return false;
+            }
             String errorMsg = String.format("下载异常: %s (类型: %s)", e.getMessage(), e.getClass().getName());
-            status.addError(errorMsg);
             status.addError("堆栈信息: " + getStackTraceAsString(e));
+            status.fail(errorMsg);
+            downloadMetrics.recordFailure(DownloadMetrics.ERROR_EXCEPTION);
             logger.error("下载任务 [{}] 异常: {} (类型: {})", taskId, e.getMessage(), e.getClass().getName(), e);
-            return new AsyncResult<>("[ERROR] " + errorMsg);
+            return false;
+        } finally {
+            // 服务停止导致的中断保留临时目录中的部分文件，用于继续下载
+            if (stagingDir != null && !handedOff && !isInterruptedByShutdown(status)) {
+                artifactStore.deleteStagingDir(stagingDir);
+            }
+        }
+    }
+    
+    /**
+     * 按结束原因标记被取消或被看门狗结束的任务失败
+     */
+    private void failAborted(DownloadStatus status) {
+        String reason = status.getAbortReason();
+        if (DownloadStatus.ABORT_CANCELLED.equals(reason)) {
+            status.fail("下载已取消");
+            downloadMetrics.recordFailure(DownloadMetrics.ERROR_CANCELLED);
+            logger.info("下载任务 [{}] 已取消", status.getTaskId());
+        } else if (DownloadStatus.ABORT_ABANDONED.equals(reason)) {
+            status.fail("任务长时间无人访问，已取消");
+            downloadMetrics.recordFailure(DownloadMetrics.ERROR_ABANDONED);
+            logger.info("下载任务 [{}] 长时间无人访问，已取消", status.getTaskId());
+        } else if (DownloadStatus.ABORT_STALLED.equals(reason)) {
+            status.fail("下载长时间没有进展，已终止");
+            downloadMetrics.recordFailure(DownloadMetrics.ERROR_STALLED);
+            logger.error("下载任务 [{}] 停滞", status.getTaskId());
+        } else {
+            status.fail("下载超时");
+            downloadMetrics.recordFailure(DownloadMetrics.ERROR_TIMEOUT);
+            logger.error("下载任务 [{}] 超时", status.getTaskId());
+        }
+    }
+    
+    /**
+     * 记录下载进程的下载阶段和合并（含其他后处理）阶段耗时
+     * @param processStartedAt 进程启动时间（System.nanoTime）
+     */
+    private void recordProcessPhases(DownloadStatus status, long processStartedAt) {
+        long now = System.nanoTime();
+        long postprocessStartedAt = status.getPostprocessStartedAt();
+        if (postprocessStartedAt > 0) {
+            downloadMetrics.recordPhase(DownloadMetrics.PHASE_DOWNLOAD, postprocessStartedAt - processStartedAt);
+            downloadMetrics.recordPhase(DownloadMetrics.PHASE_MERGE, now - postprocessStartedAt);
+        } else {
+            downloadMetrics.recordPhase(DownloadMetrics.PHASE_DOWNLOAD, now - processStartedAt);
+        }
+    }
+    
+    /**
+     * 获取yt-dlp下载完成的文件
+     * 优先使用yt-dlp写出的最终路径（按写出顺序），缺失时在任务自己的临时目录中查找
+     * @param stagingDir 任务临时目录
+     * @param filepathRecord yt-dlp写出最终路径的文件
+     * @return 下载完成的文件，找不到时返回空列表
+     */
+    private List<File> findDownloadedFiles(Path stagingDir, Path filepathRecord) throws IOException {
+        List<File> result = new ArrayList<>();
+        if (Files.isRegularFile(filepathRecord)) {
+            for (String line : Files.readAllLines(filepathRecord, StandardCharsets.UTF_8)) {
+                File file = new File(line.trim());
+                // 重启恢复时同一文件可能被写出两次
+                if (!line.trim().isEmpty() && file.isFile() && !result.contains(file)) {
+                    result.add(file);
+                }
+            }
+        }
+        if (result.isEmpty()) {
+            File[] files = stagingDir.toFile().listFiles((dir, name) -> name.endsWith(".mp4"));
+            if (files != null && files.length > 0) {
+                result.add(files[0]);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 按需要把合并或音频转码交给后处理线程池
+     * @param stagedFiles 下载完成的文件，分开下载时依次为视频和音频
+     * @param fileTag 文件名中的格式选择器摘要，结果文件名到此为止，去掉格式ID
+     * @return 后处理结果，不需要后处理时返回null
+     */
+    private CompletableFuture<File> startPostprocess(DownloadStatus status, List<File> stagedFiles, String fileTag) {
+        String audioFormat = getAudioFormat(status.getQuality());
+        File first = stagedFiles.get(0);
+        if (audioFormat != null) {
+            File output = postprocessOutput(first, fileTag, audioFormat);
+            if (output.equals(first)) {
+                // 下载的音频已经是目标格式
+                return null;
+            }
+            return postProcessor.extractAudio(status, first, audioFormat, output);
+        }
+        if (stagedFiles.size() >= 2) {
+            return postProcessor.merge(status, first, stagedFiles.get(1), postprocessOutput(first, fileTag, "mp4"));
+        }
+        return null;
+    }
+    
+    /**
+     * 后处理结果文件：与下载的文件同目录，去掉格式ID并使用目标扩展名
+     */
+    private static File postprocessOutput(File staged, String fileTag, String extension) {
+        String name = staged.getName();
+        int tagEnd = name.indexOf(" " + fileTag);
+        String baseName = tagEnd >= 0 ? name.substring(0, tagEnd + fileTag.length() + 1)
+                : name.substring(0, Math.max(0, name.lastIndexOf('.')));
+        return new File(staged.getParentFile(), baseName + "." + extension);
+    }
+    
+    /**
+     * 后处理结束后完成或标记任务失败，在后处理线程中调用
+     */
+    private void completePostprocess(DownloadStatus status, String artifactKey, File file, Throwable error) {
+        String taskId = status.getTaskId();
+        if (error == null) {
+            try {
+                completeDownload(status, artifactKey, file);
+                return;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (shuttingDown) {
+            logger.info("服务停止，下载任务 [{}] 后处理中断，下次启动时继续", taskId);
+        } else if (status.getAbortReason() != null) {
+            failAborted(status);
+        } else {
+            status.addError("后处理失败: " + error.getMessage());
+            status.fail("合并或转码失败: " + error.getMessage());
+            downloadMetrics.recordFailure(DownloadMetrics.ERROR_POSTPROCESS);
+            logger.error("下载任务 [{}] 后处理失败: {}", taskId, error.getMessage());
+        }
+    }
+    
+    /**
+     * 检查文件，移动到下载目录并登记下载产物，标记任务完成
+     * @param stagedFile 临时目录中的最终文件
+     */
+    private void completeDownload(DownloadStatus status, String artifactKey, File stagedFile) throws IOException {
+        String taskId = status.getTaskId();
+        
+        // 检查文件大小
+        long fileSize = stagedFile.length();
+        if (fileSize < 1024) { // 小于1KB的文件可能是无效的
+            status.addError("下载的视频文件过小，可能是无效文件: " + fileSize + " 字节");
+            status.fail("下载的视频文件过小，可能是无效文件");
+            downloadMetrics.recordFailure(DownloadMetrics.ERROR_FILE_TOO_SMALL);
+            logger.error("下载任务 [{}] 失败：文件过小 ({} 字节)", taskId, fileSize);
+            return;
+        }
+        
+        // 移动到下载目录并登记下载产物，相同视频和清晰度的后续请求直接使用
+        File videoFile = artifactStore.promote(stagedFile);
+        artifactStore.register(artifactKey, videoFile);
+        
+        // 设置下载完成状态，先设置文件路径，保证读到completed时文件已就绪
+        status.setOutputFile(videoFile.getAbsolutePath());
+        // 确保进度为100%
+        status.setProgress(100.0f);
+        status.setStatus("completed");
+        downloadMetrics.recordOutcome(DownloadMetrics.OUTCOME_COMPLETED, DownloadMetrics.ERROR_NONE);
+        
+        // 打印更详细的文件保存信息
+        String fileName = videoFile.getName();
+        String absolutePath = videoFile.getAbsolutePath();
+        String canonicalPath = videoFile.getCanonicalPath();
+        
+        logger.info("下载任务 [{}] 完成:", taskId);
+        logger.info("  - 文件名称: {}", fileName);
+        logger.info("  - 文件大小: {:.2f} MB", fileSize / (1024.0 * 1024.0));
+        logger.info("  - 绝对路径: {}", absolutePath);
+        logger.info("  - 规范路径: {}", canonicalPath);
+        logger.info("  - 临时目录: {}", TEMP_DIR);
+        
+        // 检查文件是否可读
+        if (videoFile.canRead()) {
+            logger.info("  - 文件可读: 是");
+        } else {
+            logger.warn("  - 文件可读: 否，可能无法正常访问");
         }
     }
     
@@ -216,122 +870,207 @@ public class YoutubeDownloadService {
      */
     public DownloadStatus getDownloadStatus(String taskId) {
         logger.debug("获取下载任务 [{}] 状态", taskId);
-        return downloadTasks.get(taskId);
+        DownloadStatus status = taskStore.get(taskId);
+        if (status != null) {
+            status.touch();
+        }
+        return status;
+    }
+    
+    /**
+     * 查询任务存储中的状态快照，用于其他节点的任务（所属节点失联时）
+     * @param taskId 任务ID
+     * @return 状态快照，不存在时返回null
+     */
+    public Map<String, Object> findTaskSnapshot(String taskId) {
+        return taskStore.findSnapshot(taskId);
+    }
+    
+    /**
+     * 获取下载任务状态，不刷新访问时间，供内部定期检查使用
+     * @param taskId 任务ID
+     * @return 下载状态，不存在时返回null
+     */
+    public DownloadStatus peekDownloadStatus(String taskId) {
+        return taskStore.get(taskId);
     }
     
     /**
      * 获取已下载的视频文件
      * @param taskId 任务ID
-     * @return 视频文件的字节数组，如果任务不存在或未完成则返回null
+     * @return 视频文件，如果任务不存在、未完成或文件不可读则返回null
      */
-    public byte[] getDownloadedVideo(String taskId) {
-        DownloadStatus status = downloadTasks.get(taskId);
+    public File getDownloadedVideoFile(String taskId) {
+        DownloadStatus status = taskStore.get(taskId);
         if (status == null || !"completed".equals(status.getStatus()) || status.getOutputFile() == null) {
             logger.warn("获取下载视频失败 [{}]: 任务不存在或未完成", taskId);
             return null;
         }
         
-        try {
-            File videoFile = new File(status.getOutputFile());
-            long fileSize = videoFile.length();
-            
-            logger.info("读取下载视频文件 [{}]:", taskId);
-            logger.info("  - 文件路径: {}", status.getOutputFile());
-            logger.info("  - 文件大小: {:.2f} MB", fileSize / (1024.0 * 1024.0));
-            logger.info("  - 文件存在: {}", videoFile.exists() ? "是" : "否");
-            logger.info("  - 文件可读: {}", videoFile.canRead() ? "是" : "否");
-            
-            byte[] data = Files.readAllBytes(Paths.get(status.getOutputFile()));
-            logger.info("  - 读取完成: 成功读取 {:.2f} MB 数据", data.length / (1024.0 * 1024.0));
-            
-            return data;
-        } catch (IOException e) {
-            status.addError("读取文件错误: " + e.getMessage());
-            logger.error("读取下载视频文件失败 [{}]: {}", taskId, e.getMessage(), e);
+        File videoFile = new File(status.getOutputFile());
+        if (!videoFile.isFile() || !videoFile.canRead()) {
+            status.addError("读取文件错误: 文件不存在或不可读 " + status.getOutputFile());
+            logger.error("读取下载视频文件失败 [{}]: 文件不存在或不可读 {}", taskId, status.getOutputFile());
             return null;
         }
+        
+        logger.info("发送下载视频文件 [{}]: {} ({} 字节)", taskId, status.getOutputFile(), videoFile.length());
+        return videoFile;
     }
     
     /**
-     * 清理下载任务
+     * 记录文件已发送给客户端，空间不足时可以回收
+     */
+    public void markDelivered(File videoFile) {
+        artifactStore.markDelivered(videoFile.getAbsolutePath());
+    }
+    
+    /**
+     * 已下载文件的sha256，用作HTTP缓存的ETag
+     * @return sha256，文件未登记为下载产物时返回null
+     */
+    public String getArtifactSha256(File videoFile) {
+        return artifactStore.getSha256(videoFile.getAbsolutePath());
+    }
+    
+    /**
+     * 获取下载任务最后几行日志
      * @param taskId 任务ID
+     * @param lines 行数
+     * @return 日志行，任务不存在时返回null
      */
-    public void cleanupTask(String taskId) {
-        logger.info("清理下载任务 [{}]", taskId);
-        DownloadStatus status = downloadTasks.remove(taskId);
+    public List<String> getTaskLogTail(String taskId, int lines) {
+        DownloadStatus status = taskStore.get(taskId);
+        return status == null ? null : status.getLog().tail(lines);
+    }
+    
+    /**
+     * 取消下载任务
+     * 排队中的任务直接移出队列；下载中的任务结束整个进程树，下载线程随即释放。
+     * 下载被多个任务共享时只结束被取消的任务：共享者退出共享；被共享的任务由一个已失败的任务替换，
+     * 下载继续为其他共享者进行，最后一个共享者也取消时才结束下载。
+     * @param taskId 任务ID
+     * @return 已取消返回true，任务已结束返回false
+     */
+    public boolean cancelDownload(String taskId) {
+        DownloadStatus status = taskStore.get(taskId);
+        if (status == null || status.isFinished()) {
+            return false;
+        }
+        return endTask(status, DownloadStatus.ABORT_CANCELLED);
+    }
+    
+    /**
+     * 结束一个任务，取消和回收已放弃的任务共用：共享者退出共享，被共享的任务退出自己的下载，
+     * 其他任务结束下载（排队中的移出队列）
+     * @param reason 结束原因，如 {@link DownloadStatus#ABORT_CANCELLED}
+     * @return 已结束返回true，任务已结束或已被终止返回false
+     */
+    private boolean endTask(DownloadStatus status, String reason) {
+        String taskId = status.getTaskId();
+        for (DownloadStatus leader : inFlightDownloads.values()) {
+            if (leader.detachFollower(status)) {
+                if (status.abort(reason)) {
+                    failAborted(status);
+                    recordTask(status);
+                }
+                logger.info("下载任务 [{}] 不再共享下载任务 [{}]", taskId, leader.getTaskId());
+                abortIfUnshared(leader, reason);
+                return true;
+            }
+        }
         
-        // 不删除下载的文件，只记录日志
-        if (status != null && status.getOutputFile() != null) {
-            logger.info("下载文件保留在: {}", status.getOutputFile());
+        if (detachFromDownload(status, reason)) {
+            logger.info("下载任务 [{}] 已结束，下载继续为共享它的任务进行", taskId);
+            return true;
         }
+        return abortDownload(status, reason);
     }
     
     /**
-     * 检查yt-dlp命令是否可用
-     * @return 如果命令可用返回true，否则返回false
+     * 让被共享的任务退出自己的下载：任务存储中换成一个已失败的同ID任务，
+     * 原任务对象不再对应任何客户端，继续运行下载并把状态同步给共享者
+     * @param reason 结束原因，决定面向用户的失败原因
+     * @return 有共享者时返回true；没有共享者或下载已被终止时返回false
      */
-    private boolean isYtDlpAvailable() {
-        try {
-            Process process = new ProcessBuilder("which", "yt-dlp").start();
-            int exitCode = process.waitFor();
-            
-            if (exitCode != 0) {
-                logger.error("yt-dlp命令不可用，请确保已正确安装。可通过以下命令安装：brew install yt-dlp 或 pip install yt-dlp");
-                // 检查Python环境
-                checkPythonEnvironment();
+    private boolean detachFromDownload(DownloadStatus status, String reason) {
+        synchronized (status) {
+            if (status.getFollowers().isEmpty() || status.getAbortReason() != null || status.isFinished()) {
                 return false;
             }
-            
-            // 检查yt-dlp版本
-            Process versionProcess = new ProcessBuilder("yt-dlp", "--version").start();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(versionProcess.getInputStream()))) {
-                String version = reader.readLine();
-                logger.info("检测到yt-dlp版本: {}", version);
-            }
-            
+            // 共用同一个日志，下载结束前的输出仍写入该任务的日志文件
+            DownloadStatus detached = new DownloadStatus(status.getTaskId(), status.getYoutubeUrl(),
+                    status.getQuality(), status.getLog());
+            detached.abort(reason);
+            failAborted(detached);
+            taskStore.put(detached);
+            recordTask(detached);
             return true;
-        } catch (Exception e) {
-            logger.error("检查yt-dlp命令失败: {}, 异常类型: {}, 堆栈信息: {}", 
-                    e.getMessage(), e.getClass().getName(), getStackTraceAsString(e));
+        }
+    }
+    
+    /**
+     * 已退出自己下载的任务在最后一个共享者也离开后结束下载
+     * @param leader 被共享的任务
+     * @param reason 结束原因
+     */
+    private void abortIfUnshared(DownloadStatus leader, String reason) {
+        synchronized (leader) {
+            if (taskStore.get(leader.getTaskId()) != leader && leader.getFollowers().isEmpty()) {
+                logger.info("下载任务 [{}] 已没有共享者，结束下载", leader.getTaskId());
+                abortDownload(leader, reason);
+            }
+        }
+    }
+    
+    /**
+     * 结束任务的下载：排队中的移出队列并在这里收尾，下载中的结束进程树，后处理中的结束后处理进程
+     * @param reason 结束原因，如 {@link DownloadStatus#ABORT_CANCELLED}
+     * @return 已结束返回true，任务已结束或已被终止返回false
+     */
+    private boolean abortDownload(DownloadStatus status, String reason) {
+        String taskId = status.getTaskId();
+        if (!status.abort(reason)) {
             return false;
         }
+        if (downloadScheduler.cancel(taskId)) {
+            // 还在排队，不会再运行，在这里完成收尾
+            failAborted(status);
+            status.getLog().close();
+            recordIfStored(status);
+            for (DownloadStatus follower : status.getFollowers()) {
+                recordIfStored(follower);
+            }
+            inFlightDownloads.values().remove(status);
+            return true;
+        }
+        Process process = runningProcesses.get(taskId);
+        if (process != null) {
+            ProcessSupport.destroyTree(process);
+        } else {
+            // 已下载完成，正在合并或转码
+            postProcessor.cancel(taskId);
+        }
+        logger.info("结束下载任务 [{}]: {}", taskId, reason);
+        return true;
     }
     
     /**
-     * 检查Python环境
+     * 清理下载任务
+     * @param taskId 任务ID
      */
-    private void checkPythonEnvironment() {
-        try {
-            // 检查Python版本
-            Process pythonProcess = new ProcessBuilder("python", "--version").start();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                    pythonProcess.getInputStream()))) {
-                String pythonVersion = reader.readLine();
-                logger.info("Python版本: {}", pythonVersion);
-            }
-            
-            // 检查pip版本
-            Process pipProcess = new ProcessBuilder("pip", "--version").start();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                    pipProcess.getInputStream()))) {
-                String pipVersion = reader.readLine();
-                logger.info("pip版本: {}", pipVersion);
-            }
-            
-            // 检查已安装的相关包
-            Process pipListProcess = new ProcessBuilder("pip", "list").start();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                    pipListProcess.getInputStream()))) {
-                String line;
-                logger.info("已安装的相关Python包:");
-                while ((line = reader.readLine()) != null) {
-                    if (line.contains("yt-dlp") || line.contains("youtube")) {
-                        logger.info("  {}", line);
-                    }
-                }
-            }
-        } catch (Exception e) {
-            logger.error("检查Python环境失败: {}", e.getMessage());
+    public void cleanupTask(String taskId) {
+        logger.info("清理下载任务 [{}]", taskId);
+        DownloadStatus status = taskStore.remove(taskId);
+        if (status == null) {
+            return;
+        }
+        status.getLog().delete();
+        taskJournal.recordRemoved(taskId);
+        
+        // 不删除下载的文件，只记录日志
+        if (status.getOutputFile() != null) {
+            logger.info("下载文件保留在: {}", status.getOutputFile());
         }
     }
     
@@ -346,63 +1085,22 @@ public class YoutubeDownloadService {
     }
     
     /**
-     * 记录系统环境信息
-     */
-    private void logSystemEnvironment() {
-        try {
-            logger.info("系统环境信息:");
-            logger.info("  操作系统: {} {}", System.getProperty("os.name"), System.getProperty("os.version"));
-            logger.info("  Java版本: {}", System.getProperty("java.version"));
-            logger.info("  临时目录: {}", TEMP_DIR);
-            
-            // 检查常用命令
-            checkCommand("yt-dlp");
-            checkCommand("python");
-            checkCommand("pip");
-            checkCommand("ffmpeg");
-            
-            // 检查磁盘空间
-            File tempDir = new File(TEMP_DIR);
-            long freeSpace = tempDir.getFreeSpace() / (1024 * 1024);
-            logger.info("  临时目录可用空间: {} MB", freeSpace);
-            
-        } catch (Exception e) {
-            logger.error("记录系统环境信息失败: {}", e.getMessage());
-        }
-    }
-    
-    /**
-     * 检查命令是否可用并记录版本信息
+     * 根据质量参数获取yt-dlp格式选择器，同时用于下载产物索引键
+     * 只要音频时只下载音频，再转码为目标格式；需要合并的选择器在下载前由resolveDownloadSelector确定实际格式
      */
-    private void checkCommand(String command) {
-        try {
-            Process process = new ProcessBuilder("which", command).start();
-            int exitCode = process.waitFor();
-            
-            if (exitCode == 0) {
-                // 尝试获取版本信息
-                try {
-                    Process versionProcess = new ProcessBuilder(command, "--version").start();
-                    try (BufferedReader reader = new BufferedReader(
-                            new InputStreamReader(versionProcess.getInputStream()))) {
-                        String version = reader.readLine();
-                        logger.info("  {} 版本: {}", command, version);
-                    }
-                } catch (Exception e) {
-                    logger.info("  {} 已安装，但无法获取版本信息: {}", command, e.getMessage());
-                }
-            } else {
-                logger.warn("  {} 命令不可用", command);
+    private String getFormatSelector(String quality) {
+        String audioFormat = getAudioFormat(quality);
+        if (audioFormat != null) {
+            switch (audioFormat) {
+                case PostProcessor.AUDIO_M4A:
+                    return "bestaudio[ext=m4a]/bestaudio/best";
+                case PostProcessor.AUDIO_OPUS:
+                    return "bestaudio[acodec=opus]/bestaudio/best";
+                default:
+                    return "bestaudio/best";
             }
-        } catch (Exception e) {
-            logger.warn("  检查 {} 命令失败: {}", command, e.getMessage());
         }
-    }
-    
-    /**
-     * 根据质量参数获取yt-dlp格式选择器
-     */
-    private String getFormatSelector(String quality) {
+        
         // 检查quality是否是format_id（数字形式）
         if (quality.matches("\\d+")) {
             // 如果是format_id，使用该ID并添加最佳音频流
@@ -429,138 +1127,286 @@ public class YoutubeDownloadService {
     }
     
     /**
-     * 读取流并更新状态
+     * 确定传给yt-dlp下载的格式
+     * 合并音视频的选择器先解析出实际选中的格式：选中视频+音频时分开下载（"视频,音频"），由后处理线程池合并；
+     * 选中的是已含音频的单个格式时直接下载该格式，不需要合并。无法解析时按原选择器下载，由yt-dlp自己合并。
+     * @param formatSelector getFormatSelector返回的选择器
+     * @return 下载使用的选择器
      */
-    private void readStreamToStatus(InputStream inputStream, DownloadStatus status, boolean isOutput) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (isOutput) {
-                    // 标准输出流处理逻辑保持不变
-                    status.addOutput(line);
-                    // 记录输出日志
-                    logger.debug("任务 [{}] 输出: {}", status.getTaskId(), line);
-                    
-                    // 解析下载进度
-                    if (line.contains("% of")) {
-                        try {
-                            // 提取进度百分比
-                            String progressStr = line.substring(line.indexOf("[download]") + 11, line.indexOf("% of")).trim();
-                            float progress = Float.parseFloat(progressStr);
-                            
-                            // 更新进度
-                            status.setProgress(progress);
-                            logger.debug("任务 [{}] 进度: {}%", status.getTaskId(), progress);
-                            
-                            // 如果进度接近100%但还没完成，设置为99.9%，留出完成时设为100%的空间
-                            if (progress > 99.9 && !"completed".equals(status.getStatus())) {
-                                status.setProgress(99.9f);
-                            }
-                        } catch (Exception e) {
-                            // 记录解析错误详情
-                            logger.warn("解析进度失败: {} (错误: {})", line, e.getMessage());
-                        }
-                    }
-                    
-                    // 检测下载完成的标志
-                    if (line.contains("Merging formats into") || 
-                        line.contains("has already been downloaded") || 
-                        line.contains("Destination:")) {
-                        // 这些消息通常表示下载已经完成或接近完成
-                        if (status.getProgress() < 99) {
-                            status.setProgress(99.0f);
-                            logger.debug("任务 [{}] 检测到下载接近完成，设置进度为99%", status.getTaskId());
-                        }
-                    }
-                    
-                    // 检测可能的错误信息
-                    if (line.contains("ERROR") || line.contains("Error") || line.contains("错误") || 
-                            line.contains("失败") || line.contains("Failed") || line.contains("failed")) {
-                        logger.error("任务 [{}] 检测到可能的错误: {}", status.getTaskId(), line);
-                        status.addError("检测到错误: " + line);
-                    }
-                    
-                    // 检测依赖包信息
-                    if (line.contains("Requirement") || line.contains("package") || 
-                            line.contains("module") || line.contains("dependency")) {
-                        logger.info("任务 [{}] 依赖包信息: {}", status.getTaskId(), line);
-                    }
-                } else {
-                    status.addError(line);
-                    logger.warn("任务 [{}] 错误流输出: {}", status.getTaskId(), line);
-                    
-                    // 分析错误类型
-                    if (line.contains("No such file") || line.contains("not found") || line.contains("找不到")) {
-                        logger.error("任务 [{}] 文件或命令未找到错误: {}", status.getTaskId(), line);
-                    } else if (line.contains("Permission") || line.contains("权限")) {
-                        logger.error("任务 [{}] 权限错误: {}", status.getTaskId(), line);
-                    } else if (line.contains("network") || line.contains("网络") || 
-                              line.contains("connection") || line.contains("连接")) {
-                        logger.error("任务 [{}] 网络连接错误: {}", status.getTaskId(), line);
-                    } else if (line.contains("module") || line.contains("package") || 
-                              line.contains("依赖") || line.contains("模块")) {
-                        logger.error("任务 [{}] 依赖包错误: {}", status.getTaskId(), line);
-                    } else if (line.contains("HTTP Error 403") || line.contains("Forbidden")) {
-                        String errorMsg = "访问被拒绝(HTTP 403)，可能是YouTube限制了访问或需要验证。尝试使用不同的网络环境或更新yt-dlp";
-                        status.addError(errorMsg);
-                        logger.error("任务 [{}] 访问被拒绝: {}", status.getTaskId(), errorMsg);
-                    }
-                    
-                    // 根据内容区分日志级别
-                    if (line.startsWith("[debug]")) {
-                        // 调试信息使用debug级别
-                        logger.debug("任务 [{}] 调试信息: {}", status.getTaskId(), line);
-                    } else if (line.contains("WARNING") || line.contains("Warning") || line.contains("警告")) {
-                        // 警告信息使用warn级别
-                        logger.warn("任务 [{}] 警告: {}", status.getTaskId(), line);
-                    } else if (line.contains("ERROR") || line.contains("Error") || line.contains("错误") || 
-                              line.contains("Failed") || line.contains("failed") || line.contains("失败")) {
-                        // 错误信息使用error级别
-                        logger.error("任务 [{}] 错误: {}", status.getTaskId(), line);
-                    } else {
-                        // 其他错误流输出使用debug级别
-                        logger.debug("任务 [{}] 错误流: {}", status.getTaskId(), line);
-                    }
-                    
-                    // 检测可能的错误信息
-                    if (line.contains("ERROR") || line.contains("Error") || line.contains("错误") || 
-                            line.contains("失败") || line.contains("Failed") || line.contains("failed")) {
-                        logger.error("任务 [{}] 检测到可能的错误: {}", status.getTaskId(), line);
-                        status.addError("检测到错误: " + line);
-                    }
-                    
-                    // 检测依赖包信息
-                    if (line.contains("Requirement") || line.contains("package") || 
-                            line.contains("module") || line.contains("dependency")) {
-                        logger.info("任务 [{}] 依赖包信息: {}", status.getTaskId(), line);
-                    }
+    private String resolveDownloadSelector(DownloadStatus status, String formatSelector) throws InterruptedException {
+        if (!formatSelector.contains("+")) {
+            return formatSelector;
+        }
+        String selected = selectFromCachedFormats(status.getYoutubeUrl(), status.getQuality());
+        if (selected == null) {
+            selected = printSelectedFormat(status, formatSelector);
+        }
+        if (selected == null) {
+            logger.warn("下载任务 [{}] 无法解析实际下载的格式，由yt-dlp按原选择器下载并合并", status.getTaskId());
+            return formatSelector;
+        }
+        return selected.replace('+', ',');
+    }
+    
+    /**
+     * 按视频信息缓存中的格式判断指定格式ID是否已含音频，不触发解析
+     * @return 已含音频时返回格式ID，只有视频时返回"格式ID+bestaudio"，未缓存该格式或不是格式ID时返回null
+     */
+    @SuppressWarnings("unchecked")
+    private String selectFromCachedFormats(String url, String quality) {
+        if (!quality.matches("\\d+")) {
+            return null;
+        }
+        Map<String, Object> info = videoInfoCache.peek(VideoUrls.cacheKey(url));
+        Object formats = info != null ? info.get("formats") : null;
+        if (!(formats instanceof List)) {
+            return null;
+        }
+        for (Map<String, Object> format : (List<Map<String, Object>>) formats) {
+            if (quality.equals(format.get("itag")) && format.get("audioCodec") instanceof String) {
+                return "none".equals(format.get("audioCodec")) ? quality + "+bestaudio" : quality;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 用yt-dlp --print format_id解析选择器实际选中的格式，不下载
+     * @return 格式ID，选中视频+音频时为"视频+音频"；解析失败或超时返回null
+     */
+    private String printSelectedFormat(DownloadStatus status, String formatSelector) throws InterruptedException {
+        String taskId = status.getTaskId();
+        List<String> command = new ArrayList<>(Arrays.asList(
+                toolchainRegistry.getCommand(ToolchainRegistry.YT_DLP),
+                "-f", formatSelector,
+                "--print", "format_id",
+                "--no-playlist"
+        ));
+        command.addAll(NETWORK_OPTIONS);
+        command.add(status.getYoutubeUrl());
+        
+        Process process;
+        try {
+            process = new ProcessBuilder(command).start();
+        } catch (IOException e) {
+            logger.warn("下载任务 [{}] 解析格式失败: {}", taskId, e.getMessage());
+            return null;
+        }
+        // 解析期间也可以取消
+        runningProcesses.put(taskId, process);
+        try {
+            if (status.getAbortReason() != null) {
+                ProcessSupport.destroyTree(process);
+            }
+            AtomicReference<String> selected = new AtomicReference<>();
+            CompletableFuture<Void> output = processOutputPump.pump(process, process.getInputStream(), line -> {
+                if (!line.trim().isEmpty()) {
+                    selected.set(line.trim());
                 }
+            }, taskId + " format");
+            // 解析失败时按原选择器下载，错误由下载进程报告，这里只记调试日志
+            processOutputPump.pump(process, process.getErrorStream(),
+                    line -> logger.debug("[{}] 解析格式: {}", taskId, line), taskId + " format stderr");
+            
+            if (!process.waitFor(FORMAT_RESOLVE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                ProcessSupport.destroyTree(process);
+                logger.warn("下载任务 [{}] 解析格式超过 {} 秒", taskId, FORMAT_RESOLVE_TIMEOUT_SECONDS);
+                return null;
+            }
+            awaitOutput(output, status, "读取格式解析输出错误: ");
+            String formatId = selected.get();
+            if (process.exitValue() != 0 || formatId == null || !SELECTED_FORMAT.matcher(formatId).matches()) {
+                return null;
+            }
+            return formatId;
+        } finally {
+            runningProcesses.remove(taskId, process);
+        }
+    }
+    
+    /**
+     * 只要音频时的目标格式，如audio-mp3返回mp3
+     * @return 目标格式，不是只要音频时返回null
+     */
+    static String getAudioFormat(String quality) {
+        if (quality != null && quality.startsWith(AUDIO_QUALITY_PREFIX)) {
+            String format = quality.substring(AUDIO_QUALITY_PREFIX.length());
+            if (PostProcessor.isAudioFormat(format)) {
+                return format;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 等待一个输出流读取结束，读取出错时记录到任务错误中
+     */
+    private void awaitOutput(CompletableFuture<Void> done, DownloadStatus status, String errorPrefix)
+            throws InterruptedException {
+        try {
+            done.get(OUTPUT_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            status.addError(errorPrefix + e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            // 子进程的子进程可能仍持有管道，不再等待
+            logger.warn("任务 [{}] 进程已退出，但输出流在 {} 秒内未结束", status.getTaskId(), OUTPUT_DRAIN_TIMEOUT_SECONDS);
+        }
+    }
+    
+    /**
+     * 处理进程标准输出的一行并更新状态，在输出读取线程中调用
+     * 进度行占输出的绝大部分，先按前缀识别并解析，其余行才做关键字检查
+     */
+    void handleOutputLine(String line, DownloadStatus status, ProgressLineParser parser) {
+        status.addOutput(line);
+        
+        switch (parser.parse(line)) {
+            case ProgressLineParser.DOWNLOAD:
+                downloadMetrics.addBytesDownloaded(parser.getDownloadedDelta());
+                bandwidthScheduler.recordBytes(status.getTaskId(), parser.getDownloadedDelta());
+                status.updateDownloadProgress(parser.getDownloadedBytes(), parser.getTotalBytes(),
+                        parser.getSpeed(), parser.getEta());
+                return;
+            case ProgressLineParser.POSTPROCESS:
+                status.setPhase(parser.getPhase());
+                logger.debug("任务 [{}] 进入阶段: {}", status.getTaskId(), parser.getPhase());
+                return;
+            default:
+                break;
+        }
+        
+        // 记录输出日志
+        logger.debug("任务 [{}] 输出: {}", status.getTaskId(), line);
+        
+        // 没有后处理进度输出的旧版本yt-dlp，按合并日志识别合并阶段
+        if (line.startsWith("[Merger]") && !DownloadStatus.PHASE_MERGE.equals(status.getPhase())) {
+            status.setPhase(DownloadStatus.PHASE_MERGE);
+        }
+        
+        // 检测下载完成的标志
+        if (line.startsWith("[Merger]") || line.contains("has already been downloaded")) {
+            // 这些消息通常表示下载已经完成或接近完成
+            if (status.getProgress() < 99) {
+                status.setProgress(99.0f);
+                logger.debug("任务 [{}] 检测到下载接近完成，设置进度为99%", status.getTaskId());
             }
         }
+        
+        // 检测可能的错误信息
+        if (isErrorLine(line)) {
+            logger.error("任务 [{}] 检测到可能的错误: {}", status.getTaskId(), line);
+            status.addError("检测到错误: " + line);
+        }
+        
+        logDependencyInfo(line, status);
+    }
+    
+    /**
+     * 处理进程错误流的一行，在输出读取线程中调用
+     */
+    void handleErrorLine(String line, DownloadStatus status) {
+        status.addError(line);
+        
+        // --verbose的调试信息占错误流的大部分，只记录不做检查
+        if (line.startsWith("[debug]")) {
+            logger.debug("任务 [{}] 调试信息: {}", status.getTaskId(), line);
+            return;
+        }
+        
+        // 分析错误类型
+        if (line.contains("No such file") || line.contains("not found") || line.contains("找不到")) {
+            logger.error("任务 [{}] 文件或命令未找到错误: {}", status.getTaskId(), line);
+        } else if (line.contains("Permission") || line.contains("权限")) {
+            logger.error("任务 [{}] 权限错误: {}", status.getTaskId(), line);
+        } else if (line.contains("network") || line.contains("网络") || 
+                  line.contains("connection") || line.contains("连接")) {
+            logger.error("任务 [{}] 网络连接错误: {}", status.getTaskId(), line);
+        } else if (line.contains("module") || line.contains("package") || 
+                  line.contains("依赖") || line.contains("模块")) {
+            logger.error("任务 [{}] 依赖包错误: {}", status.getTaskId(), line);
+        } else if (line.contains("HTTP Error 403") || line.contains("Forbidden")) {
+            String errorMsg = "访问被拒绝(HTTP 403)，可能是YouTube限制了访问或需要验证。尝试使用不同的网络环境或更新yt-dlp";
+            status.addError(errorMsg);
+            logger.error("任务 [{}] 访问被拒绝: {}", status.getTaskId(), errorMsg);
+        }
+        
+        // 根据内容区分日志级别
+        if (isErrorLine(line)) {
+            logger.error("任务 [{}] 错误: {}", status.getTaskId(), line);
+            status.addError("检测到错误: " + line);
+        } else if (line.contains("WARNING") || line.contains("Warning") || line.contains("警告")) {
+            logger.warn("任务 [{}] 警告: {}", status.getTaskId(), line);
+        } else {
+            logger.debug("任务 [{}] 错误流: {}", status.getTaskId(), line);
+        }
+        
+        logDependencyInfo(line, status);
+    }
+    
+    private static boolean isErrorLine(String line) {
+        return line.contains("ERROR") || line.contains("Error") || line.contains("错误") || 
+                line.contains("失败") || line.contains("Failed") || line.contains("failed");
+    }
+    
+    private void logDependencyInfo(String line, DownloadStatus status) {
+        if (line.contains("Requirement") || line.contains("package") || 
+                line.contains("module") || line.contains("dependency")) {
+            logger.info("任务 [{}] 依赖包信息: {}", status.getTaskId(), line);
+        }
     }
     
     /**
      * 下载状态类
      */
     public static class DownloadStatus {
+        public static final String PHASE_DOWNLOAD = "download";
+        public static final String PHASE_MERGE = "merge";
+        public static final String PHASE_POSTPROCESS = "postprocess";
+        
+        // 下载进程被提前结束的原因
+        public static final String ABORT_CANCELLED = "cancelled";
+        public static final String ABORT_STALLED = "stalled";
+        public static final String ABORT_TIMEOUT = "timeout";
+        public static final String ABORT_ABANDONED = "abandoned";
+        
         private final String taskId;
         private final String youtubeUrl;
         private final String quality;
-        private String status; // pending, downloading, completed, failed
-        private float progress;
-        private final StringBuilder output;
-        private final StringBuilder error;
-        private String outputFile;
+        private volatile String status; // pending, downloading, completed, failed
+        private volatile float progress;
+        // 当前阶段：download、merge、postprocess，进程启动前为null
+        private volatile String phase;
+        // 当前文件的已下载字节数、总字节数、速度（字节/秒）、剩余时间（秒），未知时为-1
+        private volatile long downloadedBytes = -1;
+        private volatile long totalBytes = -1;
+        private volatile long speed = -1;
+        private volatile long eta = -1;
+        // 首次进入合并或其他后处理阶段的时间（System.nanoTime），未进入时为0
+        private volatile long postprocessStartedAt;
+        private final TaskLog log;
+        private volatile String outputFile;
+        private volatile String message; // 面向用户的失败原因
         private final long startTime;
+        private volatile long finishedAt;
+        private volatile long lastAccessAt;
+        // 下载进程被提前结束的原因，如 ABORT_CANCELLED，未结束时为null
+        private volatile String abortReason;
+        // 提交任务的客户端和调度优先级，记入状态日志，重启后按原客户端和优先级恢复排队
+        private volatile String clientId;
+        private volatile int priority = DownloadScheduler.PRIORITY_INTERACTIVE;
+        // 状态版本号，每次状态、进度或失败原因变化时递增，用于事件推送判断是否有更新
+        private final AtomicLong version = new AtomicLong();
+        // 共享本任务下载结果的其他任务（相同视频和清晰度的并发请求），状态变化时同步更新
+        private final List<DownloadStatus> followers = new CopyOnWriteArrayList<>();
         
-        public DownloadStatus(String taskId, String youtubeUrl, String quality) {
+        public DownloadStatus(String taskId, String youtubeUrl, String quality, TaskLog log) {
             this.taskId = taskId;
             this.youtubeUrl = youtubeUrl;
             this.quality = quality;
             this.status = "pending";
             this.progress = 0;
-            this.output = new StringBuilder();
-            this.error = new StringBuilder();
+            this.log = log;
+            this.lastAccessAt = System.currentTimeMillis();
             this.startTime = System.currentTimeMillis();
         }
         
@@ -576,49 +1422,269 @@ public class YoutubeDownloadService {
             return quality;
         }
         
+        public String getClientId() {
+            return clientId;
+        }
+        
+        public int getPriority() {
+            return priority;
+        }
+        
+        /**
+         * 记录提交任务的客户端和调度优先级
+         */
+        public void setScheduling(String clientId, int priority) {
+            this.clientId = clientId;
+            this.priority = priority;
+        }
+        
         public String getStatus() {
             return status;
         }
         
-        public void setStatus(String status) {
+        public synchronized void setStatus(String status) {
             this.status = status;
+            if (isFinished()) {
+                finishedAt = System.currentTimeMillis();
+            }
+            version.incrementAndGet();
+            for (DownloadStatus follower : followers) {
+                follower.setStatus(status);
+            }
         }
         
         public float getProgress() {
             return progress;
         }
         
-        public void setProgress(float progress) {
+        public synchronized void setProgress(float progress) {
+            this.progress = progress;
+            version.incrementAndGet();
+            for (DownloadStatus follower : followers) {
+                follower.setProgress(progress);
+            }
+        }
+        
+        /**
+         * 更新下载进度，进度百分比由字节数计算，完成前最多99.9%，留出完成时设为100%的空间
+         */
+        public void updateDownloadProgress(long downloadedBytes, long totalBytes, long speed, long eta) {
+            float percent = progress;
+            if (downloadedBytes >= 0 && totalBytes > 0) {
+                percent = Math.min(downloadedBytes * 100f / totalBytes, 99.9f);
+            }
+            applyProgress(PHASE_DOWNLOAD, percent, downloadedBytes, totalBytes, speed, eta);
+        }
+        
+        public String getPhase() {
+            return phase;
+        }
+        
+        public synchronized void setPhase(String phase) {
+            applyProgress(phase, progress, downloadedBytes, totalBytes, -1, -1);
+        }
+        
+        public long getDownloadedBytes() {
+            return downloadedBytes;
+        }
+        
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+        
+        public long getSpeed() {
+            return speed;
+        }
+        
+        public long getEta() {
+            return eta;
+        }
+        
+        public long getPostprocessStartedAt() {
+            return postprocessStartedAt;
+        }
+        
+        private synchronized void applyProgress(String phase, float progress, long downloadedBytes,
+                                                long totalBytes, long speed, long eta) {
+            if (postprocessStartedAt == 0 && phase != null && !PHASE_DOWNLOAD.equals(phase)) {
+                postprocessStartedAt = System.nanoTime();
+            }
+            this.phase = phase;
             this.progress = progress;
+            this.downloadedBytes = downloadedBytes;
+            this.totalBytes = totalBytes;
+            this.speed = speed;
+            this.eta = eta;
+            version.incrementAndGet();
+            for (DownloadStatus follower : followers) {
+                follower.applyProgress(phase, progress, downloadedBytes, totalBytes, speed, eta);
+            }
         }
         
         public void addOutput(String line) {
-            output.append(line).append("\n");
+            log.appendOutput(line);
         }
         
         public void addError(String line) {
-            error.append(line).append("\n");
+            log.appendError(line);
         }
         
+        /**
+         * 获取最近的标准输出（仅内存中保留的部分）
+         */
         public String getOutput() {
-            return output.toString();
+            return log.recent(false);
         }
         
+        /**
+         * 获取最近的错误输出（仅内存中保留的部分）
+         */
         public String getError() {
-            return error.toString();
+            return log.recent(true);
+        }
+        
+        public TaskLog getLog() {
+            return log;
         }
         
         public String getOutputFile() {
             return outputFile;
         }
         
-        public void setOutputFile(String outputFile) {
+        public synchronized void setOutputFile(String outputFile) {
             this.outputFile = outputFile;
+            for (DownloadStatus follower : followers) {
+                follower.setOutputFile(outputFile);
+            }
+        }
+        
+        public String getMessage() {
+            return message;
+        }
+        
+        public synchronized void setMessage(String message) {
+            this.message = message;
+            version.incrementAndGet();
+            for (DownloadStatus follower : followers) {
+                follower.setMessage(message);
+            }
+        }
+        
+        /**
+         * 标记任务失败，先记录失败原因再切换状态，保证读到failed时一定能读到原因
+         * @param message 面向用户的失败原因
+         */
+        public synchronized void fail(String message) {
+            addError(message);
+            setMessage(message);
+            setStatus("failed");
+        }
+        
+        /**
+         * 让另一个任务共享本任务的下载结果
+         * @param follower 相同视频和清晰度的后到任务
+         * @return 已共享返回true；本任务的下载已被取消或终止时返回false
+         */
+        public synchronized boolean attachFollower(DownloadStatus follower) {
+            if (abortReason != null) {
+                return false;
+            }
+            followers.add(follower);
+            follower.setOutputFile(outputFile);
+            follower.setMessage(message);
+            follower.applyProgress(phase, progress, downloadedBytes, totalBytes, speed, eta);
+            follower.setStatus(status);
+            return true;
+        }
+        
+        /**
+         * 取消共享，被取消的后到任务不再随本任务更新
+         * @return follower共享本任务时返回true
+         */
+        public boolean detachFollower(DownloadStatus follower) {
+            return followers.remove(follower);
+        }
+        
+        /**
+         * 记录下载进程被提前结束的原因，只记录第一次
+         * @return 本次记录成功时返回true，任务已结束或已有原因时返回false
+         */
+        public synchronized boolean abort(String reason) {
+            if (abortReason != null || isFinished()) {
+                return false;
+            }
+            abortReason = reason;
+            return true;
+        }
+        
+        public String getAbortReason() {
+            return abortReason;
         }
         
         public long getElapsedTimeMs() {
             return System.currentTimeMillis() - startTime;
         }
+        
+        public long getVersion() {
+            return version.get();
+        }
+        
+        /**
+         * 任务结束（完成或失败）的时间，未结束时为0
+         */
+        public long getFinishedAt() {
+            return finishedAt;
+        }
+        
+        /**
+         * 客户端最后一次访问任务的时间
+         */
+        public long getLastAccessAt() {
+            return lastAccessAt;
+        }
+        
+        /**
+         * 记录客户端访问
+         */
+        public void touch() {
+            lastAccessAt = System.currentTimeMillis();
+        }
+        
+        public List<DownloadStatus> getFollowers() {
+            return followers;
+        }
+        
+        /**
+         * 任务是否已结束（完成或失败）
+         */
+        public boolean isFinished() {
+            return "completed".equals(status) || "failed".equals(status);
+        }
+        
+        /**
+         * 转换为状态接口和事件推送使用的Map
+         */
+        public Map<String, Object> toStatusMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("taskId", taskId);
+            map.put("status", status);
+            map.put("progress", progress);
+            map.put("elapsedTimeMs", getElapsedTimeMs());
+            if (phase != null) {
+                map.put("phase", phase);
+                map.put("downloadedBytes", downloadedBytes);
+                map.put("totalBytes", totalBytes);
+                map.put("speed", speed);
+                map.put("eta", eta);
+            }
+            if (message != null) {
+                map.put("message", message);
+            }
+            if (abortReason != null) {
+                map.put("abortReason", abortReason);
+            }
+            return map;
+        }
     }
 
     /**
@@ -658,18 +1724,60 @@ public class YoutubeDownloadService {
 
     /**
      * 获取视频信息
+     * 按视频ID缓存解析结果，同一视频的并发请求共享一次解析
      * @param url YouTube视频URL
      * @return 包含视频信息的Map
      */
     public Map<String, Object> getVideoInfo(String url) throws Exception {
-        // 检查yt-dlp命令是否可用
-        if (!isYtDlpAvailable()) {
+        return videoInfoCache.get(VideoUrls.cacheKey(url), () -> fetchVideoInfo(url));
+    }
+    
+    /**
+     * 从缓存中读取视频信息，不触发解析
+     * @return 视频信息，未缓存时返回null
+     */
+    public Map<String, Object> peekVideoInfo(String url) {
+        return videoInfoCache.peek(VideoUrls.cacheKey(url));
+    }
+    
+    /**
+     * 获取视频缓存统计信息
+     */
+    public Map<String, Object> getVideoInfoCacheStats() {
+        return videoInfoCache.getStats();
+    }
+
+    /**
+     * 调用yt-dlp解析视频信息
+     * @param url YouTube视频URL
+     * @return 包含视频信息的Map
+     */
+    private Map<String, Object> fetchVideoInfo(String url) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            return doFetchVideoInfo(url);
+        } finally {
+            downloadMetrics.recordPhase(DownloadMetrics.PHASE_METADATA, System.nanoTime() - startNanos);
+        }
+    }
+    
+    private Map<String, Object> doFetchVideoInfo(String url) throws Exception {
+        // 优先使用常驻工作进程，不需要每次启动Python和初始化yt-dlp
+        VideoMetadata warm = ytDlpWorkerPool.extractInfo(url);
+        if (warm != null) {
+            Map<String, Object> videoInfo = toVideoInfo(warm);
+            logger.info("成功获取视频信息（常驻工作进程）: {} ({})", videoInfo.get("title"), videoInfo.get("id"));
+            return videoInfo;
+        }
+        
+        // 检查yt-dlp命令是否可用（读取启动时探测的结果）
+        if (!toolchainRegistry.isAvailable(ToolchainRegistry.YT_DLP)) {
             throw new RuntimeException("yt-dlp命令不可用，请确保系统中已安装yt-dlp");
         }
 
         // 构建命令
         ProcessBuilder processBuilder = new ProcessBuilder(
-            "yt-dlp",
+            toolchainRegistry.getCommand(ToolchainRegistry.YT_DLP),
             "-j",  // 输出JSON格式
             "--no-playlist",  // 不处理播放列表
             url
@@ -678,10 +1786,16 @@ public class YoutubeDownloadService {
         logger.info("开始获取视频信息: {}", url);
         Process process = processBuilder.start();
         
-        // 读取输出
-        String jsonOutput = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))
-            .lines()
-            .collect(Collectors.joining("\n"));
+        // 边读输出边解析，不先拼成字符串
+        VideoMetadata metadata = null;
+        IOException parseError = null;
+        try (InputStream in = process.getInputStream()) {
+            metadata = VideoMetadata.read(in);
+            // 读完剩余输出，进程不会因管道写满而阻塞
+            IOUtils.skip(in, Long.MAX_VALUE);
+        } catch (IOException e) {
+            parseError = e;
+        }
         
         // 等待进程完成
         int exitCode = process.waitFor();
@@ -692,82 +1806,94 @@ public class YoutubeDownloadService {
             logger.error("获取视频信息失败: {}", errorOutput);
             throw new RuntimeException("获取视频信息失败: " + errorOutput);
         }
+        if (parseError != null) {
+            throw parseError;
+        }
         
-        // 解析JSON响应
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode rootNode = mapper.readTree(jsonOutput);
+        Map<String, Object> videoInfo = toVideoInfo(metadata);
+        logger.info("成功获取视频信息: {} ({})", videoInfo.get("title"), videoInfo.get("id"));
         
+        return videoInfo;
+    }
+    
+    /**
+     * 解析yt-dlp -j输出的JSON，每个清晰度只保留一个格式并按清晰度降序排序
+     * @param json yt-dlp输出的视频信息JSON
+     * @return 视频信息
+     */
+    Map<String, Object> parseVideoInfo(String json) throws IOException {
+        return toVideoInfo(VideoMetadata.parse(json));
+    }
+    
+    /**
+     * 转换为接口返回和缓存使用的视频信息，每个清晰度只保留一个格式并按清晰度降序排序
+     * @param metadata yt-dlp输出的视频信息
+     * @return 视频信息
+     */
+    Map<String, Object> toVideoInfo(VideoMetadata metadata) {
         // 构建视频信息
         Map<String, Object> videoInfo = new HashMap<>();
-        videoInfo.put("id", rootNode.get("id").asText());
-        videoInfo.put("title", rootNode.get("title").asText());
-        videoInfo.put("author", rootNode.get("uploader").asText());
-        videoInfo.put("duration", formatDuration(rootNode.get("duration").asLong()));
-        videoInfo.put("publishDate", formatDate(rootNode.get("upload_date").asText()));
-        videoInfo.put("thumbnail", rootNode.get("thumbnail").asText());
+        videoInfo.put("id", metadata.getId());
+        videoInfo.put("title", metadata.getTitle());
+        videoInfo.put("author", metadata.getUploader());
+        videoInfo.put("duration", formatDuration(Math.max(0, metadata.getDurationSeconds())));
+        videoInfo.put("durationSeconds", metadata.getDurationSeconds());
+        videoInfo.put("publishDate", formatDate(metadata.getUploadDate()));
+        videoInfo.put("thumbnail", metadata.getThumbnail());
         
         // 处理视频格式
         List<Map<String, Object>> formats = new ArrayList<>();
         Map<String, Map<String, Object>> qualityMap = new HashMap<>(); // 用于存储每个清晰度对应的最佳格式
         
-        JsonNode formatsNode = rootNode.get("formats");
-        if (formatsNode != null && formatsNode.isArray()) {
-            for (JsonNode format : formatsNode) {
-                // 只添加包含视频的格式
-                if (format.has("vcodec") && !"none".equals(format.get("vcodec").asText())) {
-                    String quality = format.has("height") ? format.get("height").asText() + "p" : "unknown";
-                    
-                    // 创建格式信息Map
-                    Map<String, Object> formatInfo = new HashMap<>();
-                    formatInfo.put("itag", format.get("format_id").asText());
-                    formatInfo.put("qualityLabel", quality);
-                    
-                    // 处理文件大小信息
-                    Long fileSize = null;
-                    if (format.has("filesize") && !format.get("filesize").isNull()) {
-                        fileSize = format.get("filesize").asLong();
-                        formatInfo.put("contentLength", fileSize);
-                    } else {
-                        // 如果没有文件大小，设置为null，但不跳过
-                        formatInfo.put("contentLength", null);
-                    }
-                    
-                    formatInfo.put("container", format.get("ext").asText());
-                    formatInfo.put("fps", format.has("fps") ? format.get("fps").asText() : null);
-                    formatInfo.put("audioQuality", format.has("asr") ? format.get("asr").asText() + "Hz" : null);
-                    formatInfo.put("videoCodec", format.get("vcodec").asText());
-                    formatInfo.put("audioCodec", format.has("acodec") ? format.get("acodec").asText() : null);
+        for (VideoMetadata.Format format : metadata.getFormats()) {
+            // 只添加包含视频的格式
+            if (format.hasVideo()) {
+                String quality = format.getHeight() != null ? format.getHeight() + "p" : "unknown";
+                
+                // 创建格式信息Map
+                Map<String, Object> formatInfo = new HashMap<>();
+                formatInfo.put("itag", format.getFormatId());
+                formatInfo.put("qualityLabel", quality);
+                
+                // 处理文件大小信息，没有文件大小时为null，但不跳过
+                Long fileSize = format.getFilesize();
+                formatInfo.put("contentLength", fileSize);
+                
+                formatInfo.put("container", format.getExt());
+                formatInfo.put("fps", format.getFps());
+                formatInfo.put("audioQuality", format.getAsr() != null ? format.getAsr() + "Hz" : null);
+                formatInfo.put("videoCodec", format.getVcodec());
+                formatInfo.put("audioCodec", format.getAcodec());
+                
+                // 检查是否已存在相同清晰度的格式
+                if (qualityMap.containsKey(quality)) {
+                    Map<String, Object> existingFormat = qualityMap.get(quality);
+                    Object existingSizeObj = existingFormat.get("contentLength");
                     
-                    // 检查是否已存在相同清晰度的格式
-                    if (qualityMap.containsKey(quality)) {
-                        Map<String, Object> existingFormat = qualityMap.get(quality);
-                        Object existingSizeObj = existingFormat.get("contentLength");
-                        
-                        // 如果现有格式没有文件大小但新格式有，则替换
-                        if (existingSizeObj == null && fileSize != null) {
+                    // 如果现有格式没有文件大小但新格式有，则替换
+                    if (existingSizeObj == null && fileSize != null) {
+                        qualityMap.put(quality, formatInfo);
+                        logger.debug("替换清晰度 {} 的格式：新格式有文件大小 {} MB，原格式无文件大小", 
+                            quality, fileSize / (1024.0 * 1024.0));
+                    } 
+                    // 如果两者都有文件大小，比较大小
+                    else if (existingSizeObj != null && fileSize != null) {
+                        long existingSize = (Long) existingSizeObj;
+                        if (fileSize > existingSize) {
                             qualityMap.put(quality, formatInfo);
-                            logger.debug("替换清晰度 {} 的格式：新格式有文件大小 {} MB，原格式无文件大小", 
-                                quality, fileSize / (1024.0 * 1024.0));
-                        } 
-                        // 如果两者都有文件大小，比较大小
-                        else if (existingSizeObj != null && fileSize != null) {
-                            long existingSize = (Long) existingSizeObj;
-                            if (fileSize > existingSize) {
-                                qualityMap.put(quality, formatInfo);
-                                logger.debug("替换清晰度 {} 的格式，新文件大小: {} MB，原文件大小: {} MB", 
-                                    quality, fileSize / (1024.0 * 1024.0), existingSize / (1024.0 * 1024.0));
-                            }
+                            logger.debug("替换清晰度 {} 的格式，新文件大小: {} MB，原文件大小: {} MB", 
+                                quality, fileSize / (1024.0 * 1024.0), existingSize / (1024.0 * 1024.0));
                         }
-                        // 如果新格式没有文件大小但现有格式有，保留现有格式
+                    }
+                    // 如果新格式没有文件大小但现有格式有，保留现有格式
+                } else {
+                    // 如果是新的清晰度，直接添加
+                    qualityMap.put(quality, formatInfo);
+                    if (fileSize != null) {
+                        logger.debug("添加新清晰度 {} 的格式，文件大小: {} MB", 
+                            quality, fileSize / (1024.0 * 1024.0));
                     } else {
-                        // 如果是新的清晰度，直接添加
-                        qualityMap.put(quality, formatInfo);
-                        if (fileSize != null) {
-                            logger.debug("添加新清晰度 {} 的格式，文件大小: {} MB", 
-                                quality, fileSize / (1024.0 * 1024.0));
-                        } else {
-                            logger.debug("添加新清晰度 {} 的格式，文件大小未知", quality);
-                        }
+                        logger.debug("添加新清晰度 {} 的格式，文件大小未知", quality);
                     }
                 }
             }
@@ -789,8 +1915,6 @@ public class YoutubeDownloadService {
         });
         
         videoInfo.put("formats", formats);
-        logger.info("成功获取视频信息: {} ({})", videoInfo.get("title"), videoInfo.get("id"));
-        
         return videoInfo;
     }
 }
\ No newline at end of file
@@ -0,0 +1,432 @@
+package com.ldk.youtube.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 常驻yt-dlp工作进程池，用于获取视频信息
+ * 每次fork yt-dlp都要启动Python解释器、导入模块并初始化提取器，常驻进程只在启动时付出一次。
+ * 工作进程从标准输入读取一行一个的JSON请求，在标准输出逐个写出JSON响应，见 worker/yt_dlp_worker.py。
+ * <ul>
+ *     <li>健康检查：定期ping空闲的工作进程，无响应或已退出的替换为新进程</li>
+ *     <li>回收：处理的请求数达到上限或常驻内存超过上限后退出，由新进程替换</li>
+ *     <li>回退：未启用、Python环境中没有yt_dlp模块、没有空闲工作进程或工作进程异常退出时返回null，
+ *     调用方改为每次fork yt-dlp</li>
+ * </ul>
+ * 下载仍然每个任务一个yt-dlp进程：取消、限速和看门狗都按进程操作。
+ */
+@Component
+public class YtDlpWorkerPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(YtDlpWorkerPool.class);
+
+    private static final String WORKER_SCRIPT = "worker/yt_dlp_worker.py";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Autowired
+    private ToolchainRegistry toolchainRegistry;
+
+    @Autowired
+    private DownloadMetrics downloadMetrics;
+
+    @Autowired
+    private ProcessOutputPump processOutputPump;
+
+    // 常驻工作进程数，0表示不启用，每次fork yt-dlp
+    @Value("${youtube.worker-pool.size:2}")
+    private int size;
+
+    // 每个工作进程处理多少个请求后回收
+    @Value("${youtube.worker-pool.max-jobs:200}")
+    private int maxJobs;
+
+    // 常驻内存超过该值（MB）后回收
+    @Value("${youtube.worker-pool.max-rss-mb:500}")
+    private long maxRssMb;
+
+    // 等待空闲工作进程的最长时间（毫秒），超过后改为fork
+    @Value("${youtube.worker-pool.acquire-timeout-ms:2000}")
+    private long acquireTimeoutMs;
+
+    // 单个请求的最长时间（秒），超时结束工作进程
+    @Value("${youtube.worker-pool.job-timeout-seconds:60}")
+    private long jobTimeoutSeconds;
+
+    // 工作进程启动（导入yt_dlp）的最长时间（秒）
+    @Value("${youtube.worker-pool.startup-timeout-seconds:30}")
+    private long startupTimeoutSeconds;
+
+    // 健康检查间隔（秒）
+    @Value("${youtube.worker-pool.health-check-seconds:30}")
+    private long healthCheckSeconds;
+
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger live = new AtomicInteger();
+    private final AtomicLong requestIds = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+    private ScheduledExecutorService timeouts;
+    private Path script;
+    private volatile String lastError;
+    private volatile boolean stopped;
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (size <= 0) {
+            logger.info("未启用yt-dlp常驻工作进程，获取视频信息时每次启动yt-dlp");
+            return;
+        }
+        script = Files.createTempFile("yt-dlp-worker", ".py");
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(WORKER_SCRIPT)) {
+            if (in == null) {
+                throw new IOException("找不到工作进程脚本: " + WORKER_SCRIPT);
+            }
+            Files.copy(in, script, StandardCopyOption.REPLACE_EXISTING);
+        }
+        script.toFile().deleteOnExit();
+
+        // 启动工作进程和健康检查都在这一个线程中，不会同时启动多余的进程
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "yt-dlp-worker-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 超时单独一个线程，启动进程或健康检查等待响应时也能及时触发
+        timeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "yt-dlp-worker-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        downloadMetrics.registerGauge("youtube.workers.live", "yt-dlp常驻工作进程数", live::get);
+        downloadMetrics.registerGauge("youtube.workers.idle", "空闲的yt-dlp常驻工作进程数", idle::size);
+        scheduler.execute(this::fill);
+        scheduler.scheduleWithFixedDelay(this::healthCheck, healthCheckSeconds, healthCheckSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            timeouts.shutdownNow();
+        }
+        Worker worker;
+        while ((worker = idle.poll()) != null) {
+            worker.destroy();
+        }
+    }
+
+    /**
+     * 由常驻工作进程获取视频信息
+     * @param url 视频URL
+     * @return 视频信息；未启用、没有可用的工作进程或工作进程异常退出时返回null，调用方应改为fork yt-dlp
+     * @throws RuntimeException yt-dlp报告获取失败（如视频不可用）或超时
+     */
+    public VideoMetadata extractInfo(String url) throws InterruptedException {
+        if (scheduler == null || stopped) {
+            return null;
+        }
+        Worker worker = idle.poll(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+        if (worker == null) {
+            downloadMetrics.recordWorkerJob(DownloadMetrics.WORKER_FALLBACK);
+            logger.debug("没有空闲的yt-dlp工作进程，改为启动新进程: {}", url);
+            return null;
+        }
+
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("type", "info");
+        request.put("url", url);
+        Response response;
+        worker.jobs++;
+        try {
+            response = worker.call(request, jobTimeoutSeconds);
+        } catch (IOException e) {
+            retire(worker);
+            if (worker.timedOut) {
+                downloadMetrics.recordWorkerJob(DownloadMetrics.WORKER_ERROR);
+                throw new RuntimeException("获取视频信息超时（" + jobTimeoutSeconds + " 秒）");
+            }
+            downloadMetrics.recordWorkerJob(DownloadMetrics.WORKER_FALLBACK);
+            logger.warn("yt-dlp工作进程 [{}] 异常，改为启动新进程: {}", worker.pid, e.getMessage());
+            return null;
+        }
+        release(worker);
+
+        if (!response.ok) {
+            downloadMetrics.recordWorkerJob(DownloadMetrics.WORKER_ERROR);
+            throw new RuntimeException("获取视频信息失败: " + response.error);
+        }
+        if (response.metadata == null) {
+            downloadMetrics.recordWorkerJob(DownloadMetrics.WORKER_ERROR);
+            throw new RuntimeException("获取视频信息失败: 工作进程没有返回视频信息");
+        }
+        downloadMetrics.recordWorkerJob(DownloadMetrics.WORKER_OK);
+        return response.metadata;
+    }
+
+    /**
+     * 工作进程池状态，用于健康检查
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", scheduler != null);
+        stats.put("size", size);
+        stats.put("live", live.get());
+        stats.put("idle", idle.size());
+        stats.put("lastError", lastError);
+        return stats;
+    }
+
+    /**
+     * 启动工作进程直到达到配置的数量，启动失败时等下次健康检查再试，只在工作进程池线程中调用
+     */
+    private void fill() {
+        while (!stopped && live.get() < size) {
+            Worker worker;
+            try {
+                worker = spawn();
+            } catch (IOException | RuntimeException e) {
+                lastError = e.getMessage();
+                logger.warn("启动yt-dlp工作进程失败，获取视频信息时改为每次启动yt-dlp: {}", e.getMessage());
+                return;
+            }
+            live.incrementAndGet();
+            lastError = null;
+            idle.offer(worker);
+        }
+    }
+
+    private Worker spawn() throws IOException {
+        if (!toolchainRegistry.isAvailable(ToolchainRegistry.PYTHON)) {
+            throw new IOException("Python不可用");
+        }
+        List<String> command = Arrays.asList(toolchainRegistry.getCommand(ToolchainRegistry.PYTHON), "-u",
+                script.toString());
+        Process process = new ProcessBuilder(command).start();
+        Worker worker = new Worker(process);
+        // yt-dlp自己的输出都在错误流中，只记调试日志
+        processOutputPump.pump(process, process.getErrorStream(),
+                line -> logger.debug("yt-dlp工作进程 [{}]: {}", worker.pid, line), "yt-dlp-worker " + worker.pid + " stderr");
+        Response ready;
+        try {
+            ready = worker.read(startupTimeoutSeconds);
+        } catch (IOException e) {
+            worker.destroy();
+            throw new IOException("工作进程启动失败: " + e.getMessage(), e);
+        }
+        if (!ready.ok) {
+            worker.destroy();
+            throw new IOException(ready.error != null ? ready.error : "工作进程启动失败");
+        }
+        logger.info("yt-dlp工作进程已启动 [{}]: yt-dlp {}，常驻内存 {} MB", worker.pid, ready.version,
+                ready.rssKb / 1024);
+        return worker;
+    }
+
+    /**
+     * 归还工作进程，达到请求数或内存上限时回收
+     */
+    private void release(Worker worker) {
+        if (worker.jobs >= maxJobs || (maxRssMb > 0 && worker.rssKb > maxRssMb * 1024)) {
+            logger.info("回收yt-dlp工作进程 [{}]: 已处理 {} 个请求，常驻内存 {} MB", worker.pid, worker.jobs,
+                    worker.rssKb / 1024);
+            retire(worker);
+            return;
+        }
+        if (stopped) {
+            worker.destroy();
+            return;
+        }
+        idle.offer(worker);
+    }
+
+    /**
+     * 结束工作进程并启动新进程替换
+     */
+    private void retire(Worker worker) {
+        worker.destroy();
+        live.decrementAndGet();
+        if (!stopped) {
+            scheduler.execute(this::fill);
+        }
+    }
+
+    /**
+     * ping所有空闲的工作进程，替换无响应的，再补足数量
+     */
+    private void healthCheck() {
+        try {
+            List<Worker> checked = new ArrayList<>();
+            idle.drainTo(checked);
+            for (Worker worker : checked) {
+                Map<String, Object> ping = new HashMap<>();
+                ping.put("type", "ping");
+                try {
+                    worker.call(ping, startupTimeoutSeconds);
+                    release(worker);
+                } catch (IOException e) {
+                    logger.warn("yt-dlp工作进程 [{}] 健康检查失败: {}", worker.pid, e.getMessage());
+                    retire(worker);
+                }
+            }
+            fill();
+        } catch (RuntimeException e) {
+            logger.warn("yt-dlp工作进程健康检查失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 一个常驻工作进程，同一时间只由一个线程使用
+     */
+    private class Worker {
+        private final Process process;
+        private final long pid;
+        private final Writer stdin;
+        // 整个生命周期使用同一个解析器，响应逐个作为顶层JSON值读取
+        private final JsonParser stdout;
+        private int jobs;
+        private long rssKb;
+        private volatile boolean timedOut;
+
+        Worker(Process process) throws IOException {
+            this.process = process;
+            this.pid = ProcessSupport.pid(process);
+            OutputStream out = process.getOutputStream();
+            this.stdin = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            this.stdout = JSON_FACTORY.createParser(process.getInputStream());
+        }
+
+        Response call(Map<String, Object> request, long timeoutSeconds) throws IOException {
+            long id = requestIds.incrementAndGet();
+            request.put("id", id);
+            stdin.write(MAPPER.writeValueAsString(request));
+            stdin.write('\n');
+            stdin.flush();
+            Response response = read(timeoutSeconds);
+            if (response.id != id) {
+                throw new IOException("响应与请求不对应: " + response.id + " != " + id);
+            }
+            return response;
+        }
+
+        /**
+         * 读取下一个响应，超时结束进程，读取随即失败
+         */
+        Response read(long timeoutSeconds) throws IOException {
+            ScheduledFuture<?> timeout = timeouts.schedule(() -> {
+                timedOut = true;
+                destroy();
+            }, timeoutSeconds, TimeUnit.SECONDS);
+            Response response;
+            try {
+                response = readResponse();
+            } finally {
+                if (!timeout.cancel(false)) {
+                    // 超时处理已经开始，进程已被结束
+                    timedOut = true;
+                }
+            }
+            if (timedOut) {
+                throw new IOException("工作进程超时");
+            }
+            rssKb = response.rssKb;
+            return response;
+        }
+
+        private Response readResponse() throws IOException {
+            JsonToken token = stdout.nextToken();
+            if (token == null) {
+                throw new IOException("工作进程已退出");
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new IOException("无效的响应");
+            }
+            Response response = new Response();
+            while (stdout.nextToken() == JsonToken.FIELD_NAME) {
+                String field = stdout.getCurrentName();
+                JsonToken value = stdout.nextToken();
+                switch (field) {
+                    case "id":
+                        response.id = value.isNumeric() ? stdout.getValueAsLong() : -1;
+                        break;
+                    case "ok":
+                    case "ready":
+                        response.ok = value == JsonToken.VALUE_TRUE;
+                        break;
+                    case "rss_kb":
+                        response.rssKb = stdout.getValueAsLong(-1);
+                        break;
+                    case "version":
+                        response.version = stdout.getValueAsString();
+                        break;
+                    case "error":
+                        response.error = stdout.getValueAsString();
+                        break;
+                    case "info":
+                        if (value == JsonToken.START_OBJECT) {
+                            response.metadata = VideoMetadata.read(stdout);
+                        } else {
+                            stdout.skipChildren();
+                        }
+                        break;
+                    default:
+                        stdout.skipChildren();
+                        break;
+                }
+            }
+            return response;
+        }
+
+        void destroy() {
+            ProcessSupport.destroyTree(process);
+        }
+    }
+
+    /**
+     * 工作进程的一个响应
+     */
+    private static class Response {
+        private long id = -1;
+        private boolean ok;
+        private long rssKb = -1;
+        private String version;
+        private String error;
+        private VideoMetadata metadata;
+    }
+}
@@ -0,0 +1,69 @@
+#!/usr/bin/env python3
+# yt-dlp常驻工作进程：启动时导入yt_dlp并初始化提取器，之后从标准输入逐行读取JSON请求，
+# 每个请求在标准输出写一行JSON响应。标准输出只用于协议，yt-dlp自己的输出都写到错误流。
+#
+# 请求：{"id": 1, "type": "info", "url": "..."}   响应：{"id": 1, "ok": true, "rss_kb": 0, "info": {...}}
+#       {"id": 2, "type": "ping"}                响应：{"id": 2, "ok": true, "rss_kb": 0}
+# 失败：{"id": 1, "ok": false, "rss_kb": 0, "error": "..."}
+# 启动完成：{"ready": true, "version": "...", "rss_kb": 0}，导入失败时ready为false并退出
+import io
+import json
+import os
+import sys
+
+# 协议固定使用UTF-8，不随系统区域设置变化；响应中的非ASCII字符转义输出
+protocol_in = io.TextIOWrapper(sys.stdin.buffer, encoding='utf-8')
+protocol_out = io.TextIOWrapper(sys.stdout.buffer, encoding='utf-8')
+sys.stdout = sys.stderr
+
+
+def send(message):
+    protocol_out.write(json.dumps(message) + '\n')
+    protocol_out.flush()
+
+
+def rss_kb():
+    """当前常驻内存（KB），用于按内存增长回收工作进程"""
+    try:
+        with open('/proc/self/statm') as f:
+            return int(f.read().split()[1]) * os.sysconf('SC_PAGE_SIZE') // 1024
+    except (OSError, ValueError, IndexError):
+        pass
+    try:
+        import resource
+        peak = resource.getrusage(resource.RUSAGE_SELF).ru_maxrss
+        return peak // 1024 if sys.platform == 'darwin' else peak
+    except (ImportError, OSError):
+        return -1
+
+
+try:
+    import yt_dlp
+except Exception as e:
+    send({'ready': False, 'error': 'import yt_dlp failed: %s' % e})
+    sys.exit(1)
+
+# 与 yt-dlp -j --no-playlist 一致
+ydl = yt_dlp.YoutubeDL({'quiet': True, 'no_warnings': True, 'noplaylist': True, 'skip_download': True})
+send({'ready': True, 'version': yt_dlp.version.__version__, 'rss_kb': rss_kb()})
+
+for line in protocol_in:
+    line = line.strip()
+    if not line:
+        continue
+    try:
+        request = json.loads(line)
+    except ValueError:
+        send({'id': None, 'ok': False, 'error': 'invalid request'})
+        continue
+    request_id = request.get('id')
+    try:
+        if request.get('type') == 'ping':
+            send({'id': request_id, 'ok': True, 'rss_kb': rss_kb()})
+        elif request.get('type') == 'info':
+            info = ydl.extract_info(request['url'], download=False)
+            send({'id': request_id, 'ok': True, 'rss_kb': rss_kb(), 'info': ydl.sanitize_info(info)})
+        else:
+            send({'id': request_id, 'ok': False, 'error': 'unknown request type'})
+    except Exception as e:
+        send({'id': request_id, 'ok': False, 'rss_kb': rss_kb(), 'error': str(e)})